@@ -0,0 +1,113 @@
+package com.github.jonathannye.rpatch.benchmarks;
+
+import com.github.jonathannye.rpatch.RPatchLayout;
+import com.github.jonathannye.rpatch.awt.AwtPatchSet;
+import com.github.jonathannye.rpatch.awt.AwtRPatchRenderer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost for every combination of repeat flags, repeat mode and centering: what
+ * RPatch.onBoundsChange() does, i.e. laying out the regions and planning and building the
+ * drawBitmapMesh grids, and a full draw with {@link AwtRPatchRenderer} into a phone-sized image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LayoutBenchmark {
+
+    private static final int TARGET_WIDTH = 480;
+    private static final int TARGET_HEIGHT = 800;
+    // As in RPatch
+    private static final int MESH_MAX_VERTICES = 128 * 128;
+
+    // REPEAT_INNER_NONE, _X, _Y, _BOTH
+    @Param({"0", "1", "2", "3"})
+    public int inner;
+
+    // Every combination of the REPEAT_OUTER_* bits
+    @Param({"0", "4", "8", "12", "16", "20", "24", "28",
+            "32", "36", "40", "44", "48", "52", "56", "60"})
+    public int outer;
+
+    // REPEAT_MODE_DISCRETE, REPEAT_MODE_CUTOFF
+    @Param({"0", "64"})
+    public int mode;
+
+    @Param({"false", "true"})
+    public boolean centered;
+
+    @Param({"128"})
+    public int assetSize;
+
+    private int flags;
+    private RPatchLayout layout;
+    private final int[] blocks = new int[8];
+    private final float[][] verts = new float[2][];
+    private int frame;
+    private AwtRPatchRenderer renderer;
+    private BufferedImage target;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setUp() {
+        flags = inner | outer | mode;
+        SyntheticAsset asset = new SyntheticAsset(assetSize);
+        layout = new RPatchLayout(RPatchLayout.scanBorder(asset.topRow(), asset.leftColumn()));
+        renderer = new AwtRPatchRenderer(AwtPatchSet.parse(asset.toImage()), flags, centered);
+        target = new BufferedImage(TARGET_WIDTH, TARGET_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        graphics = target.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public int[] layout() {
+        // Vary the bounds like a resize animation so nothing is constant-folded
+        frame = (frame + 1) & 63;
+        layout.layout(0, 0, TARGET_WIDTH - frame, TARGET_HEIGHT - frame, flags, centered);
+        return layout.regions;
+    }
+
+    @Benchmark
+    public float[][] layoutAndMesh() {
+        frame = (frame + 1) & 63;
+        layout.layout(0, 0, TARGET_WIDTH - frame, TARGET_HEIGHT - frame, flags, centered);
+        int count = layout.meshBlocks(blocks);
+        for (int b = 0; b < count; b++) {
+            int r = b * 4;
+            // Meshed straight from the asset, border included, like a zero-copy RPatch
+            verts[b] = layout.mesh(1, blocks[r], blocks[r + 1], blocks[r + 2], blocks[r + 3],
+                    verts[b], MESH_MAX_VERTICES);
+        }
+        return verts;
+    }
+
+    @Benchmark
+    public BufferedImage layoutAndDraw() {
+        frame = (frame + 1) & 63;
+        renderer.draw(graphics, 0, 0, TARGET_WIDTH - frame, TARGET_HEIGHT - frame);
+        return target;
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.jonathannye.rpatch.benchmarks;
+
+import com.github.jonathannye.rpatch.PatchAnalysis;
+import com.github.jonathannye.rpatch.RPatchLayout;
+import com.github.jonathannye.rpatch.awt.AwtPatchSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Border scanning and patch analysis across asset sizes, i.e. the per-pixel work
+ * PatchSet.parseBitmap() does per load, and slicing a whole asset into patches with
+ * {@link AwtPatchSet}. Android copies the patches out with Canvas instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-Djava.awt.headless=true"})
+public class ParseBenchmark {
+
+    @Param({"32", "128", "512", "1024", "4096"})
+    public int size;
+
+    private SyntheticAsset asset;
+    // The border as read out of the bitmap, which PatchSet does before scanning
+    private int[] topRow;
+    private int[] leftColumn;
+    private int[] bounds;
+    private BufferedImage image;
+    private final PatchAnalysis analysis = new PatchAnalysis();
+    private final int[] colors = new int[9];
+
+    @Setup
+    public void setUp() {
+        asset = new SyntheticAsset(size);
+        topRow = asset.topRow();
+        leftColumn = asset.leftColumn();
+        bounds = RPatchLayout.scanBorder(topRow, leftColumn);
+        image = asset.toImage();
+    }
+
+    @Benchmark
+    public int[] scanBorder() {
+        return RPatchLayout.scanBorder(topRow, leftColumn);
+    }
+
+    @Benchmark
+    public int[] analyze() {
+        return analyze(bounds);
+    }
+
+    @Benchmark
+    public int[] parse() {
+        return analyze(RPatchLayout.scanBorder(topRow, leftColumn));
+    }
+
+    @Benchmark
+    public AwtPatchSet slice() {
+        return AwtPatchSet.parse(image);
+    }
+
+    // Feeds every patch to the analysis row by row, inside the one pixel border, like
+    // PatchSet.analyze()
+    private int[] analyze(int[] bounds) {
+        int y = 1;
+        for (int row = 0; row < 3; row++) {
+            int h = bounds[3 + row];
+            int x = 1;
+            for (int col = 0; col < 3; col++) {
+                int w = bounds[col];
+                analysis.reset();
+                for (int py = y; py < y + h; py++) {
+                    analysis.addPixels(asset.pixels, py * asset.width + x, w);
+                }
+                colors[row * 3 + col] = analysis.getSolidColor();
+                x += w;
+            }
+            y += h;
+        }
+        return colors;
+    }
+}
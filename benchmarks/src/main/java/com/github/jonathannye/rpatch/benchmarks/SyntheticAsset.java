@@ -0,0 +1,49 @@
+package com.github.jonathannye.rpatch.benchmarks;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A square RPatch asset held as ARGB pixels, with the middle third of each border edge marked.
+ * Stands in for a decoded Bitmap so parsing can be measured on a plain JVM.
+ */
+final class SyntheticAsset {
+
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    SyntheticAsset(int size) {
+        width = size;
+        height = size;
+        pixels = new int[size * size];
+        for (int y = 1; y < size - 1; y++) {
+            for (int x = 1; x < size - 1; x++) {
+                pixels[y * size + x] = 0xFF000000 | (x * 31 + y * 17) & 0xFFFFFF;
+            }
+        }
+        for (int i = size / 3; i < size * 2 / 3; i++) {
+            pixels[i] = 0xFF000000;
+            pixels[i * size] = 0xFF000000;
+        }
+    }
+
+    int[] topRow() {
+        int[] row = new int[width];
+        System.arraycopy(pixels, 0, row, 0, width);
+        return row;
+    }
+
+    int[] leftColumn() {
+        int[] column = new int[height];
+        for (int y = 0; y < height; y++) {
+            column[y] = pixels[y * width];
+        }
+        return column;
+    }
+
+    BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+}
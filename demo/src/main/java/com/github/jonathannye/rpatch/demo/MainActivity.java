@@ -260,10 +260,21 @@ public class MainActivity extends SherlockActivity {
         RPatch patch = new RPatch(this, DRAWABLE_RES_IDS.get(currentDrawableIndex));
         patch.setDrawCentered(drawPatchCentered);
         patch.setRepeatFlags(innerRepeatMode | outerRepeatMode | repeatBehavior);
+        final RPatch oldPatch = (RPatch) patchView.getBackground();
         patchView.setBackgroundDrawable(patch);
 
         ViewGroup dbgContainer = (ViewGroup) findViewById(R.id.patch_segment_container);
         dbgContainer.removeAllViews();
+        if (oldPatch != null) {
+            // Its bitmaps can be reused once the view has drawn without it; until then the last
+            // frame's display list may still refer to them
+            patchView.post(new Runnable() {
+                @Override
+                public void run() {
+                    oldPatch.release();
+                }
+            });
+        }
         for (int i = 0; i < 9; i++) {
             ImageView iv = new ImageView(this);
             iv.setLayoutParams(new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
@@ -0,0 +1,102 @@
+package com.github.jonathannye.rpatch.awt;
+
+import com.github.jonathannye.rpatch.RPatchLayout;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The nine patches of an RPatch asset as {@link BufferedImage}s, the java.awt counterpart of the
+ * Android PatchSet. Immutable once parsed, so one set can be shared by any number of threads and
+ * {@link AwtRPatchRenderer}s.
+ */
+public final class AwtPatchSet {
+
+    // Patches in RPatchLayout index order, null where the patch is empty. Never drawn into.
+    final BufferedImage[] patches = new BufferedImage[9];
+    private final int[] bounds;
+
+    private AwtPatchSet(int[] bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * Parses an asset with its one pixel border, as drawn for RPatch.
+     */
+    public static AwtPatchSet parse(BufferedImage asset) {
+        int width = asset.getWidth();
+        int height = asset.getHeight();
+        int[] topRow = asset.getRGB(0, 0, width, 1, null, 0, width);
+        int[] leftColumn = asset.getRGB(0, 0, 1, height, null, 0, 1);
+        return slice(asset, RPatchLayout.scanBorder(topRow, leftColumn), 1);
+    }
+
+    /**
+     * Slices a border-stripped asset by boundaries generated at build time, like
+     * {@code PatchSet.fromBounds}.
+     *
+     * @param bounds leftWidth, midWidth, rightWidth, topHeight, midHeight, botHeight
+     */
+    public static AwtPatchSet fromBounds(BufferedImage asset, int[] bounds) {
+        if (bounds[0] + bounds[1] + bounds[2] != asset.getWidth()
+                || bounds[3] + bounds[4] + bounds[5] != asset.getHeight()) {
+            throw new IllegalArgumentException("Bounds don't match the asset's size");
+        }
+        return slice(asset, bounds.clone(), 0);
+    }
+
+    public static AwtPatchSet read(File file) throws IOException {
+        BufferedImage asset = ImageIO.read(file);
+        if (asset == null) {
+            throw new IOException("Unable to decode " + file);
+        }
+        return parse(asset);
+    }
+
+    private static AwtPatchSet slice(BufferedImage asset, int[] bounds, int inset) {
+        AwtPatchSet set = new AwtPatchSet(bounds);
+        int y = inset;
+        for (int row = 0; row < 3; row++) {
+            int h = bounds[3 + row];
+            int x = inset;
+            for (int col = 0; col < 3; col++) {
+                int w = bounds[col];
+                if (w > 0 && h > 0) {
+                    // Copied out into INT_ARGB, which Graphics2D draws and tiles fastest
+                    BufferedImage patch = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                    int[] pixels = asset.getRGB(x, y, w, h, null, 0, w);
+                    patch.setRGB(0, 0, w, h, pixels, 0, w);
+                    set.patches[row * 3 + col] = patch;
+                }
+                x += w;
+            }
+            y += h;
+        }
+        return set;
+    }
+
+    /**
+     * @return A new layout for this set's patch sizes; layouts are not thread-safe, so each thread
+     * needs its own
+     */
+    public RPatchLayout newLayout() {
+        return new RPatchLayout(bounds);
+    }
+
+    /**
+     * @return Width of the asset without its border
+     */
+    public int getWidth() {
+        return bounds[0] + bounds[1] + bounds[2];
+    }
+
+    /**
+     * @return Height of the asset without its border
+     */
+    public int getHeight() {
+        return bounds[3] + bounds[4] + bounds[5];
+    }
+}
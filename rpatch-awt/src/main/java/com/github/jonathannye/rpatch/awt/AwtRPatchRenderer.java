@@ -0,0 +1,150 @@
+package com.github.jonathannye.rpatch.awt;
+
+import com.github.jonathannye.rpatch.RPatchCanvas;
+import com.github.jonathannye.rpatch.RPatchLayout;
+
+import java.awt.Graphics2D;
+import java.awt.TexturePaint;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Draws an {@link AwtPatchSet} with java.awt, following the same layout rules as RPatch on
+ * Android: corners drawn as is, other patches stretched or repeated per the repeat flags, in
+ * discrete or cutoff mode, optionally centered. Renderers are immutable and every draw lays out
+ * into its own {@link RPatchLayout}, so one renderer can draw on many threads at once.
+ */
+public final class AwtRPatchRenderer {
+
+    private final AwtPatchSet mPatchSet;
+    private final int mFlags;
+    private final boolean mDrawCentered;
+
+    /**
+     * @param flags        Repeat flags, as for {@code RPatch.setRepeatFlags(int)}, using the
+     *                     {@link RPatchLayout} constants
+     * @param drawCentered As for {@code RPatch.setDrawCentered(boolean)}
+     */
+    public AwtRPatchRenderer(AwtPatchSet patchSet, int flags, boolean drawCentered) {
+        mPatchSet = patchSet;
+        mFlags = flags;
+        mDrawCentered = drawCentered;
+    }
+
+    public void draw(Graphics2D g, int left, int top, int right, int bottom) {
+        RPatchLayout layout = mPatchSet.newLayout();
+        layout.layout(left, top, right, bottom, mFlags, mDrawCentered);
+        layout.draw(new GraphicsCanvas(g, mPatchSet.patches));
+    }
+
+    /**
+     * @return A new INT_ARGB image of the given size with this RPatch drawn over all of it
+     * @throws IllegalArgumentException If either dimension isn't positive; java.awt images can't
+     *                                  be empty
+     */
+    public BufferedImage render(int width, int height) {
+        checkSize(width, height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            draw(g, 0, 0, width, height);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Renders every size in parallel on the given executor and waits for all of them.
+     *
+     * @param sizes Width and height of each image
+     * @return The images, in the order of their sizes
+     */
+    public List<BufferedImage> renderAll(ExecutorService executor, int[] sizes)
+            throws InterruptedException {
+        // Checked up front, so a bad size fails the call rather than one of the tasks
+        for (int i = 0; i + 1 < sizes.length; i += 2) {
+            checkSize(sizes[i], sizes[i + 1]);
+        }
+        List<Callable<BufferedImage>> tasks = new ArrayList<Callable<BufferedImage>>();
+        for (int i = 0; i + 1 < sizes.length; i += 2) {
+            final int width = sizes[i];
+            final int height = sizes[i + 1];
+            tasks.add(new Callable<BufferedImage>() {
+                @Override
+                public BufferedImage call() {
+                    return render(width, height);
+                }
+            });
+        }
+        List<BufferedImage> images = new ArrayList<BufferedImage>(tasks.size());
+        for (Future<BufferedImage> future : executor.invokeAll(tasks)) {
+            try {
+                images.add(future.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to render RPatch", e.getCause());
+            }
+        }
+        return images;
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("RPatch render size must be positive, was "
+                    + width + "x" + height);
+        }
+    }
+
+    private static final class GraphicsCanvas implements RPatchCanvas {
+
+        private final Graphics2D mGraphics;
+        private final BufferedImage[] mPatches;
+
+        GraphicsCanvas(Graphics2D g, BufferedImage[] patches) {
+            mGraphics = g;
+            mPatches = patches;
+        }
+
+        @Override
+        public void drawCorner(int idx, int left, int top, int right, int bottom) {
+            mGraphics.drawImage(mPatches[idx], left, top, null);
+        }
+
+        @Override
+        public void fillRegion(int idx, int left, int top, int right, int bottom,
+                               float scaleX, float scaleY, float originX, float originY) {
+            BufferedImage patch = mPatches[idx];
+            int width = patch.getWidth();
+            int height = patch.getHeight();
+            // Scale is 1 along repeating axes, and stretches one tile over the region otherwise
+            int tileWidth = Math.round(width * scaleX);
+            int tileHeight = Math.round(height * scaleY);
+            // TexturePaint samples scaled tiles unevenly, so stretching is left to drawImage
+            if (tileWidth == right - left && tileHeight == bottom - top
+                    && originX == left && originY == top) {
+                mGraphics.drawImage(patch, left, top, right, bottom, 0, 0, width, height, null);
+                return;
+            }
+            BufferedImage tile = patch;
+            if (tileWidth != width || tileHeight != height) {
+                tile = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = tile.createGraphics();
+                try {
+                    g.drawImage(patch, 0, 0, tileWidth, tileHeight, null);
+                } finally {
+                    g.dispose();
+                }
+            }
+            // Like RPatch's BitmapShaders, the tiling starts where layout put it
+            mGraphics.setPaint(new TexturePaint(tile,
+                    new Rectangle2D.Float(originX, originY, tileWidth, tileHeight)));
+            mGraphics.fillRect(left, top, right - left, bottom - top);
+        }
+    }
+}
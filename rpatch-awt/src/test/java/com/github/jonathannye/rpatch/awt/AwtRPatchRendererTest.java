@@ -0,0 +1,138 @@
+package com.github.jonathannye.rpatch.awt;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_INNER_BOTH;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_INNER_NONE;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_MODE_CUTOFF;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_MODE_DISCRETE;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_OUTER_ALL;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_OUTER_LEFT;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_OUTER_TOP;
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Golden pixels for tiny assets with one pixel corners and two or three pixel middle patches,
+ * colored so that repeating (ABAB) and stretching (AABB) are told apart.
+ */
+public class AwtRPatchRendererTest {
+
+    private static final int[] BOUNDS = {1, 2, 1, 1, 2, 1};
+
+    private static final int NONE = 0;
+    // Corners
+    private static final int TL = 0xFFFF0000;
+    private static final int TR = 0xFF00FF00;
+    private static final int BL = 0xFF0000FF;
+    private static final int BR = 0xFFFFFF00;
+    // Left and right halves of the top and bottom middle patches
+    private static final int A = 0xFF111111;
+    private static final int B = 0xFF222222;
+    // Upper and lower halves of the left and right middle patches
+    private static final int C = 0xFF333333;
+    private static final int D = 0xFF444444;
+    // The middle patch
+    private static final int E = 0xFF555555;
+    private static final int F = 0xFF666666;
+    private static final int G = 0xFF777777;
+    private static final int H = 0xFF888888;
+
+    private static final int[] ASSET = {
+            TL, A, B, TR,
+            C, E, F, C,
+            D, G, H, D,
+            BL, A, B, BR,
+    };
+
+    @Test
+    public void discreteRepeatsWholePatches() {
+        BufferedImage image = render(REPEAT_MODE_DISCRETE | REPEAT_INNER_BOTH | REPEAT_OUTER_ALL,
+                false, 7, 4);
+        // Two whole repetitions fit; the last column is left empty
+        assertArrayEquals(new int[]{TL, A, B, A, B, TR, NONE}, row(image, 0));
+        assertArrayEquals(new int[]{C, E, F, E, F, C, NONE}, row(image, 1));
+        assertArrayEquals(new int[]{BL, A, B, A, B, BR, NONE}, row(image, 3));
+    }
+
+    @Test
+    public void discreteCentered() {
+        // Three pixels wide in the middle, so the leftover margin can be split
+        int[] asset = {
+                TL, A, A, B, TR,
+                C, E, E, F, C,
+                D, G, G, H, D,
+                BL, A, A, B, BR,
+        };
+        AwtPatchSet patchSet = patchSet(asset, 5, new int[]{1, 3, 1, 1, 2, 1});
+        BufferedImage image = new AwtRPatchRenderer(patchSet,
+                REPEAT_MODE_DISCRETE | REPEAT_INNER_BOTH | REPEAT_OUTER_ALL, true).render(10, 4);
+        assertArrayEquals(new int[]{NONE, TL, A, A, B, A, A, B, TR, NONE}, row(image, 0));
+        assertArrayEquals(new int[]{NONE, BL, A, A, B, A, A, B, BR, NONE}, row(image, 3));
+    }
+
+    @Test
+    public void cutoffFillsBounds() {
+        BufferedImage image = render(REPEAT_MODE_CUTOFF | REPEAT_INNER_BOTH | REPEAT_OUTER_ALL,
+                false, 7, 5);
+        assertArrayEquals(new int[]{TL, A, B, A, B, A, TR}, row(image, 0));
+        assertArrayEquals(new int[]{G, H, G, H, G}, slice(row(image, 2), 1, 6));
+        assertArrayEquals(new int[]{TL, C, D, C, BL}, column(image, 0));
+    }
+
+    @Test
+    public void nothingRepeatingStretches() {
+        BufferedImage image = render(REPEAT_MODE_CUTOFF | REPEAT_INNER_NONE, false, 8, 8);
+        assertArrayEquals(new int[]{TL, A, A, A, B, B, B, TR}, row(image, 0));
+        assertArrayEquals(new int[]{C, E, E, E, F, F, F, C}, row(image, 1));
+        assertArrayEquals(new int[]{D, G, G, G, H, H, H, D}, row(image, 6));
+        assertArrayEquals(new int[]{TL, C, C, C, D, D, D, BL}, column(image, 0));
+    }
+
+    @Test
+    public void outerFlagsRepeatOnlyTheirEdges() {
+        BufferedImage image = render(REPEAT_MODE_CUTOFF | REPEAT_OUTER_TOP | REPEAT_OUTER_LEFT,
+                false, 8, 8);
+        assertArrayEquals(new int[]{TL, A, B, A, B, A, B, TR}, row(image, 0));
+        assertArrayEquals(new int[]{BL, A, A, A, B, B, B, BR}, row(image, 7));
+        assertArrayEquals(new int[]{TL, C, D, C, D, C, D, BL}, column(image, 0));
+        assertArrayEquals(new int[]{TR, C, C, C, D, D, D, BR}, column(image, 7));
+        // The middle patch still stretches
+        assertArrayEquals(new int[]{E, E, E, F, F, F}, slice(row(image, 1), 1, 7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void renderRejectsEmptySize() {
+        new AwtRPatchRenderer(patchSet(), REPEAT_MODE_CUTOFF, false).render(0, 4);
+    }
+
+    private static AwtPatchSet patchSet() {
+        return patchSet(ASSET, 4, BOUNDS);
+    }
+
+    private static AwtPatchSet patchSet(int[] pixels, int width, int[] bounds) {
+        int height = pixels.length / width;
+        BufferedImage asset = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        asset.setRGB(0, 0, width, height, pixels, 0, width);
+        return AwtPatchSet.fromBounds(asset, bounds);
+    }
+
+    private static BufferedImage render(int flags, boolean centered, int width, int height) {
+        return new AwtRPatchRenderer(patchSet(), flags, centered).render(width, height);
+    }
+
+    private static int[] row(BufferedImage image, int y) {
+        return image.getRGB(0, y, image.getWidth(), 1, null, 0, image.getWidth());
+    }
+
+    private static int[] column(BufferedImage image, int x) {
+        return image.getRGB(x, 0, 1, image.getHeight(), null, 0, 1);
+    }
+
+    private static int[] slice(int[] values, int from, int to) {
+        int[] slice = new int[to - from];
+        System.arraycopy(values, from, slice, 0, slice.length);
+        return slice;
+    }
+}
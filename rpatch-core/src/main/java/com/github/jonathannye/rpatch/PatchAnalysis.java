@@ -0,0 +1,89 @@
+package com.github.jonathannye.rpatch;
+
+/**
+ * Classifies the ARGB pixels of one patch, fed in a row at a time: whether they are all opaque or
+ * all invisible, and whether every visible pixel has the same color. RPatch uses this when parsing
+ * to skip invisible patches, fill single-color ones and compact bitmaps.
+ *
+ * Instances are reused through {@link #reset()} and don't allocate.
+ */
+public final class PatchAnalysis {
+
+    private boolean opaque;
+    private boolean transparent;
+    private boolean oneColor;
+    private boolean solid;
+    private int color;
+    private int argb;
+
+    public PatchAnalysis() {
+        reset();
+    }
+
+    /**
+     * Starts over for the next patch.
+     */
+    public void reset() {
+        opaque = true;
+        transparent = true;
+        oneColor = true;
+        solid = true;
+        color = 0;
+        argb = 0;
+    }
+
+    /**
+     * Adds {@code count} pixels of the patch, starting at {@code offset}.
+     */
+    public void addPixels(int[] pixels, int offset, int count) {
+        for (int x = offset; x < offset + count; x++) {
+            int pixel = pixels[x];
+            int alpha = pixel >>> 24;
+            if (alpha != 0xFF) {
+                opaque = false;
+            }
+            if (alpha == 0) {
+                solid = false;
+                continue;
+            }
+            int rgb = pixel | 0xFF000000;
+            if (transparent) {
+                color = rgb;
+                argb = pixel;
+                transparent = false;
+            } else {
+                oneColor &= rgb == color;
+                solid &= pixel == argb;
+            }
+        }
+    }
+
+    /**
+     * @return Whether every pixel added has full alpha
+     */
+    public boolean isOpaque() {
+        return opaque;
+    }
+
+    /**
+     * @return Whether every pixel added is fully transparent
+     */
+    public boolean isTransparent() {
+        return transparent;
+    }
+
+    /**
+     * @return The color shared by every visible pixel, with full alpha, or 0 if they differ or
+     * none are visible
+     */
+    public int getColor() {
+        return oneColor ? color : 0;
+    }
+
+    /**
+     * @return The color of every pixel if they are all the same and visible, or 0
+     */
+    public int getSolidColor() {
+        return solid ? argb : 0;
+    }
+}
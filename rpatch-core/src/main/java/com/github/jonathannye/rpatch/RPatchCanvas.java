@@ -0,0 +1,25 @@
+package com.github.jonathannye.rpatch;
+
+/**
+ * What a platform renderer implements to draw a laid out RPatch: {@link RPatchLayout#draw} walks
+ * the regions and hands each one that has something to draw to one of these methods. RPatch on
+ * Android and AwtRPatchRenderer on java.awt both draw this way, so they place every patch alike.
+ *
+ * Region coordinates are left, top, right and bottom, as in {@link RPatchLayout#regions}.
+ */
+public interface RPatchCanvas {
+
+    /**
+     * Draws a corner patch at its own size, filling its region.
+     */
+    void drawCorner(int idx, int left, int top, int right, int bottom);
+
+    /**
+     * Fills a region with its patch, tiled along the axes it repeats on and stretched along the
+     * others. One tile is the patch scaled by {@code scaleX} and {@code scaleY} with its top left
+     * at {@code originX}, {@code originY}, as in {@link RPatchLayout#transforms}; tiles are cut off
+     * at the region's edges.
+     */
+    void fillRegion(int idx, int left, int top, int right, int bottom,
+                    float scaleX, float scaleY, float originX, float originY);
+}
@@ -0,0 +1,488 @@
+package com.github.jonathannye.rpatch;
+
+/**
+ * The platform-independent half of RPatch: finding patch boundaries in an asset's border, and
+ * laying the nine patch regions out for a set of bounds and repeat flags. Results are written to
+ * flat primitive arrays that are reused between calls, so laying out doesn't allocate.
+ *
+ * Instances are not thread-safe; use one per drawable (or per thread).
+ */
+public final class RPatchLayout {
+
+    // Patch indices
+    public static final int IDX_TOP_LEFT = 0;
+    public static final int IDX_TOP_MID = 1;
+    public static final int IDX_TOP_RIGHT = 2;
+    public static final int IDX_MID_LEFT = 3;
+    public static final int IDX_MID = 4;
+    public static final int IDX_MID_RIGHT = 5;
+    public static final int IDX_BOT_LEFT = 6;
+    public static final int IDX_BOT_MID = 7;
+    public static final int IDX_BOT_RIGHT = 8;
+
+    // Patch repetition flags
+    public static final int REPEAT_INNER_X = 1;
+    public static final int REPEAT_INNER_Y = 1 << 1;
+    public static final int REPEAT_INNER_BOTH = REPEAT_INNER_X | REPEAT_INNER_Y;
+    public static final int REPEAT_INNER_NONE = 0;
+    public static final int REPEAT_OUTER_TOP = 1 << 2;
+    public static final int REPEAT_OUTER_BOTTOM = 1 << 3;
+    public static final int REPEAT_OUTER_LEFT = 1 << 4;
+    public static final int REPEAT_OUTER_RIGHT = 1 << 5;
+    public static final int REPEAT_OUTER_ALL = REPEAT_OUTER_TOP | REPEAT_OUTER_BOTTOM
+            | REPEAT_OUTER_LEFT | REPEAT_OUTER_RIGHT;
+    public static final int REPEAT_OUTER_NONE = 0;
+
+    // Repetition
+    public static final int REPEAT_MODE_CUTOFF = 1 << 6;
+    public static final int REPEAT_MODE_DISCRETE = 0;
+
+    public final int leftWidth;
+    public final int midWidth;
+    public final int rightWidth;
+    public final int topHeight;
+    public final int midHeight;
+    public final int botHeight;
+
+    /**
+     * Left, top, right and bottom of each region, in patch index order.
+     */
+    public final int[] regions = new int[36];
+
+    /**
+     * Scale x, scale y, translate x and translate y mapping each patch's pixels into its region,
+     * in patch index order. Scale is 1 along axes the patch repeats on.
+     */
+    public final float[] transforms = new float[36];
+
+    /**
+     * Cells across and down the grid last written by
+     * {@link #mesh(int, int, int, int, int, float[], int)}.
+     */
+    public int meshColumns;
+    public int meshRows;
+
+    private final int[] xs = new int[4];
+    private final int[] ys = new int[4];
+
+    // Scratch for mesh(): segment boundaries in the source bitmap and where they land
+    private final int[] meshSrc = new int[6];
+    private final int[] meshDst = new int[6];
+
+    // Bit (1 << idx) is set for patches that repeat rather than stretch along that axis
+    private int repeatXMask;
+    private int repeatYMask;
+
+    public RPatchLayout(int leftWidth, int midWidth, int rightWidth,
+                        int topHeight, int midHeight, int botHeight) {
+        this.leftWidth = leftWidth;
+        this.midWidth = midWidth;
+        this.rightWidth = rightWidth;
+        this.topHeight = topHeight;
+        this.midHeight = midHeight;
+        this.botHeight = botHeight;
+    }
+
+    /**
+     * @param bounds leftWidth, midWidth, rightWidth, topHeight, midHeight, botHeight as returned by
+     *               {@link #scanBorder(int[], int[])}
+     */
+    public RPatchLayout(int[] bounds) {
+        this(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+    }
+
+    public static boolean isCorner(int idx) {
+        return idx == IDX_TOP_LEFT || idx == IDX_TOP_RIGHT
+                || idx == IDX_BOT_LEFT || idx == IDX_BOT_RIGHT;
+    }
+
+    public int getPatchWidth(int idx) {
+        switch (idx % 3) {
+            case 0:
+                return leftWidth;
+            case 1:
+                return midWidth;
+            default:
+                return rightWidth;
+        }
+    }
+
+    public int getPatchHeight(int idx) {
+        switch (idx / 3) {
+            case 0:
+                return topHeight;
+            case 1:
+                return midHeight;
+            default:
+                return botHeight;
+        }
+    }
+
+    public boolean repeatsX(int idx) {
+        return (repeatXMask & (1 << idx)) != 0;
+    }
+
+    public boolean repeatsY(int idx) {
+        return (repeatYMask & (1 << idx)) != 0;
+    }
+
+    /**
+     * Finds the patch boundaries marked in an asset's one pixel border. A pixel counts as a marker
+     * if it isn't fully transparent; the first and last markers on each edge bound the middle
+     * patches.
+     *
+     * @param topRow     ARGB pixels of the asset's top row
+     * @param leftColumn ARGB pixels of the asset's left column
+     * @return leftWidth, midWidth, rightWidth, topHeight, midHeight, botHeight
+     */
+    public static int[] scanBorder(int[] topRow, int[] leftColumn) {
+        int width = topRow.length;
+        int height = leftColumn.length;
+        int hLeft = firstMarker(topRow);
+        int hRight = lastMarker(topRow);
+        int vTop = firstMarker(leftColumn);
+        int vBottom = lastMarker(leftColumn);
+        if (hLeft == -1 || vTop == -1) {
+            throw new IllegalArgumentException("RPatch asset has no border markers");
+        }
+
+        int leftWidth = hLeft - 1;
+        int midWidth = hRight - leftWidth;
+        int rightWidth = width - midWidth - leftWidth - 2;
+        int topHeight = vTop - 1;
+        int midHeight = vBottom - topHeight;
+        int botHeight = height - midHeight - topHeight - 2;
+        return new int[]{leftWidth, midWidth, rightWidth, topHeight, midHeight, botHeight};
+    }
+
+    /**
+     * Scales patch sizes, e.g. for a different screen density. Boundaries are rounded from their
+     * scaled positions so the total size scales consistently, and no patch shrinks below one pixel
+     * unless it was empty to begin with.
+     *
+     * @param bounds leftWidth, midWidth, rightWidth, topHeight, midHeight, botHeight
+     */
+    public static int[] scaleBounds(int[] bounds, float scale) {
+        int[] scaled = new int[6];
+        for (int axis = 0; axis < 6; axis += 3) {
+            int edge = 0;
+            int scaledEdge = 0;
+            for (int i = axis; i < axis + 3; i++) {
+                edge += bounds[i];
+                int next = bounds[i] == 0
+                        ? scaledEdge : Math.max(Math.round(edge * scale), scaledEdge + 1);
+                scaled[i] = next - scaledEdge;
+                scaledEdge = next;
+            }
+        }
+        return scaled;
+    }
+
+    /**
+     * Stricter than {@link #scanBorder(int[], int[])}, for build-time validation: the markers on a
+     * border edge must form one contiguous run that doesn't touch the corners.
+     *
+     * @throws IllegalArgumentException describing the problem
+     */
+    public static void checkBorder(int[] border) {
+        int first = firstMarker(border);
+        if (first == -1) {
+            throw new IllegalArgumentException("no markers");
+        }
+        int last = lastMarker(border);
+        for (int i = first; i <= last; i++) {
+            if ((border[i] & 0xFF000000) == 0) {
+                throw new IllegalArgumentException("markers must be one contiguous run");
+            }
+        }
+        if (first == 0 || last == border.length - 1) {
+            throw new IllegalArgumentException("markers must not touch the corners");
+        }
+    }
+
+    private static int firstMarker(int[] border) {
+        for (int i = 0; i < border.length; i++) {
+            if ((border[i] & 0xFF000000) != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastMarker(int[] border) {
+        for (int i = border.length - 1; i != 0; i--) {
+            if ((border[i] & 0xFF000000) != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Lays the regions out for the given bounds. In discrete mode the drawn area is shrunk to a
+     * whole number of middle patches, anchored at the top left or centered.
+     */
+    public void layout(int left, int top, int right, int bottom, int flags, boolean centered) {
+        // If it's not cutoff mode, we have to modify the bounds
+        if ((flags & REPEAT_MODE_CUTOFF) == 0) {
+
+            int maxMidWidth = right - left - leftWidth - rightWidth;
+            int maxMidHeight = bottom - top - topHeight - botHeight;
+            // Empty middle patches can't be repeated at all
+            int numXReps = midWidth == 0 ? 0 : maxMidWidth / midWidth;
+            int numYReps = midHeight == 0 ? 0 : maxMidHeight / midHeight;
+
+            if (centered) {
+                // Diffs are inset into original bounds to center
+                int xDiff = maxMidWidth - numXReps * midWidth;
+                left += (xDiff / 2);
+                right -= (xDiff / 2);
+                int yDiff = maxMidHeight - numYReps * midHeight;
+                top += (yDiff / 2);
+                bottom -= (yDiff / 2);
+            } else {
+                right = left + leftWidth + rightWidth + numXReps * midWidth;
+                bottom = top + topHeight + botHeight + numYReps * midHeight;
+            }
+        }
+
+        // TODO: Edge patches drawn on cutoffs are inset by one (bottom only?)
+        xs[0] = left;
+        xs[1] = left + leftWidth;
+        xs[2] = right - rightWidth;
+        xs[3] = right;
+        ys[0] = top;
+        ys[1] = top + topHeight;
+        ys[2] = bottom - botHeight;
+        ys[3] = bottom;
+        for (int i = 0; i < 9; i++) {
+            int col = i % 3;
+            int row = i / 3;
+            regions[i * 4] = xs[col];
+            regions[i * 4 + 1] = ys[row];
+            regions[i * 4 + 2] = xs[col + 1];
+            regions[i * 4 + 3] = ys[row + 1];
+        }
+
+        repeatXMask = 0;
+        repeatYMask = 0;
+        setRepeat(IDX_TOP_MID, (flags & REPEAT_OUTER_TOP) != 0, true);
+        setRepeat(IDX_MID_LEFT, true, (flags & REPEAT_OUTER_LEFT) != 0);
+        setRepeat(IDX_MID, (flags & REPEAT_INNER_X) != 0, (flags & REPEAT_INNER_Y) != 0);
+        setRepeat(IDX_MID_RIGHT, true, (flags & REPEAT_OUTER_RIGHT) != 0);
+        setRepeat(IDX_BOT_MID, (flags & REPEAT_OUTER_BOTTOM) != 0, true);
+
+        for (int i = 0; i < 9; i++) {
+            int r = i * 4;
+            transforms[r] = repeatsX(i) || isCorner(i) || getPatchWidth(i) == 0
+                    ? 1.0f : (regions[r + 2] - regions[r]) / (float) getPatchWidth(i);
+            transforms[r + 1] = repeatsY(i) || isCorner(i) || getPatchHeight(i) == 0
+                    ? 1.0f : (regions[r + 3] - regions[r + 1]) / (float) getPatchHeight(i);
+            transforms[r + 2] = regions[r];
+            transforms[r + 3] = regions[r + 1];
+        }
+    }
+
+    /**
+     * Hands every region of the last layout that has something to draw to the canvas, in patch
+     * index order: corners to {@link RPatchCanvas#drawCorner}, the others to
+     * {@link RPatchCanvas#fillRegion} with their transform. Empty regions, and regions of empty
+     * patches, are skipped.
+     */
+    public void draw(RPatchCanvas canvas) {
+        for (int i = 0; i < 9; i++) {
+            int r = i * 4;
+            int left = regions[r];
+            int top = regions[r + 1];
+            int right = regions[r + 2];
+            int bottom = regions[r + 3];
+            if (right <= left || bottom <= top
+                    || getPatchWidth(i) == 0 || getPatchHeight(i) == 0) {
+                continue;
+            }
+            if (isCorner(i)) {
+                canvas.drawCorner(i, left, top, right, bottom);
+            } else {
+                canvas.fillRegion(i, left, top, right, bottom, transforms[r], transforms[r + 1],
+                        transforms[r + 2], transforms[r + 3]);
+            }
+        }
+    }
+
+    /**
+     * Grid cell size of a mesh along one axis. {@code drawBitmapMesh} spaces texture coordinates
+     * evenly over its bitmap, so every patch, and the border if the bitmap still has one, has to
+     * span whole cells for the grid to map each of them exactly as its region's transform does;
+     * cells are the greatest common divisor of their sizes. A one pixel border therefore means a
+     * one pixel grid.
+     *
+     * @param inset 1 if the bitmap still has its border, which is collapsed to nothing
+     * @return The cell size, or 0 if the axis is empty
+     */
+    public static int meshStep(int inset, int first, int mid, int last) {
+        return gcd(gcd(gcd(inset, first), mid), last);
+    }
+
+    /**
+     * Whether the last layout lets the region be drawn from a mesh, which can only stretch: it
+     * mustn't repeat along an axis it is stretched on.
+     */
+    public boolean meshable(int idx) {
+        return !(idx % 3 == 1 && repeatsX(idx)) && !(idx / 3 == 1 && repeatsY(idx));
+    }
+
+    /**
+     * Picks the blocks of patches to draw with
+     * {@link #mesh(int, int, int, int, int, float[], int)} for the last layout. A mesh can't leave
+     * a hole, so blocks are runs of whole patch rows or whole patch columns, whichever leaves fewer
+     * regions to be drawn one by one.
+     *
+     * @param blocks Receives the first column, first row, last column and last row of each block;
+     *               needs room for two
+     * @return The number of blocks, 0 if every row and column holds a region that repeats
+     */
+    public int meshBlocks(int[] blocks) {
+        int rowMask = 0;
+        int columnMask = 0;
+        for (int line = 0; line < 3; line++) {
+            if (meshable(line * 3) && meshable(line * 3 + 1) && meshable(line * 3 + 2)) {
+                rowMask |= 1 << line;
+            }
+            if (meshable(line) && meshable(line + 3) && meshable(line + 6)) {
+                columnMask |= 1 << line;
+            }
+        }
+        if (drawCalls(columnMask) < drawCalls(rowMask)) {
+            return lineBlocks(columnMask, true, blocks);
+        }
+        return lineBlocks(rowMask, false, blocks);
+    }
+
+    // One call per block of meshed lines, and three for each line drawn region by region
+    private static int drawCalls(int lineMask) {
+        int calls = 0;
+        for (int line = 0; line < 3; line++) {
+            if ((lineMask & (1 << line)) == 0) {
+                calls += 3;
+            } else if (line == 0 || (lineMask & (1 << (line - 1))) == 0) {
+                calls++;
+            }
+        }
+        return calls;
+    }
+
+    private static int lineBlocks(int lineMask, boolean columns, int[] blocks) {
+        int count = 0;
+        int line = 0;
+        while (line < 3) {
+            if ((lineMask & (1 << line)) == 0) {
+                line++;
+                continue;
+            }
+            int first = line;
+            while (line < 3 && (lineMask & (1 << line)) != 0) {
+                line++;
+            }
+            int b = count * 4;
+            blocks[b] = columns ? first : 0;
+            blocks[b + 1] = columns ? 0 : first;
+            blocks[b + 2] = columns ? line - 1 : 2;
+            blocks[b + 3] = columns ? 2 : line - 1;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Builds a {@code drawBitmapMesh} grid that draws a block of regions of the last layout
+     * straight from the asset bitmap holding all the patches. The grid is spaced by
+     * {@link #meshStep(int, int, int, int)}, so no patch is resampled, and its lines are mapped
+     * piecewise-linearly onto the regions. The border and patches outside the block are collapsed
+     * onto the block's edges, so they draw nothing.
+     *
+     * @param inset       1 if the bitmap still has its border, which is collapsed to nothing
+     * @param verts       Array to reuse if it is large enough, may be null
+     * @param maxVertices Grids needing more vertices than this aren't built
+     * @return The x, y vertex pairs of {@link #meshColumns} + 1 by {@link #meshRows} + 1 grid
+     * lines, or null if the grid would be too large
+     */
+    public float[] mesh(int inset, int firstCol, int firstRow, int lastCol, int lastRow,
+                        float[] verts, int maxVertices) {
+        int stepX = meshStep(inset, leftWidth, midWidth, rightWidth);
+        int stepY = meshStep(inset, topHeight, midHeight, botHeight);
+        if (stepX == 0 || stepY == 0) {
+            return null;
+        }
+        int columns = (leftWidth + midWidth + rightWidth + 2 * inset) / stepX;
+        int rows = (topHeight + midHeight + botHeight + 2 * inset) / stepY;
+        int count = (columns + 1) * (rows + 1);
+        if (count > maxVertices) {
+            return null;
+        }
+        if (verts == null || verts.length < count * 2) {
+            verts = new float[count * 2];
+        }
+        meshColumns = columns;
+        meshRows = rows;
+
+        // The x coordinates of the first row are the same for every other row
+        setSegments(inset, leftWidth, midWidth, rightWidth, xs, firstCol, lastCol);
+        for (int col = 0; col <= columns; col++) {
+            verts[col * 2] = mapToSegments(col * stepX);
+        }
+        setSegments(inset, topHeight, midHeight, botHeight, ys, firstRow, lastRow);
+        int v = 0;
+        for (int row = 0; row <= rows; row++) {
+            float y = mapToSegments(row * stepY);
+            for (int col = 0; col <= columns; col++) {
+                verts[v++] = verts[col * 2];
+                verts[v++] = y;
+            }
+        }
+        return verts;
+    }
+
+    private void setSegments(int inset, int first, int mid, int last, int[] edges,
+                             int firstLine, int lastLine) {
+        meshSrc[0] = 0;
+        meshSrc[1] = inset;
+        meshSrc[2] = inset + first;
+        meshSrc[3] = inset + first + mid;
+        meshSrc[4] = inset + first + mid + last;
+        meshSrc[5] = meshSrc[4] + inset;
+        meshDst[0] = edges[firstLine];
+        meshDst[5] = edges[lastLine + 1];
+        for (int i = 0; i < 4; i++) {
+            meshDst[i + 1] = edges[Math.min(Math.max(i, firstLine), lastLine + 1)];
+        }
+    }
+
+    private float mapToSegments(int src) {
+        for (int i = 0; i < 5; i++) {
+            int length = meshSrc[i + 1] - meshSrc[i];
+            if (src <= meshSrc[i + 1] && length > 0) {
+                return meshDst[i] + (src - meshSrc[i])
+                        * (meshDst[i + 1] - meshDst[i]) / (float) length;
+            }
+        }
+        return meshDst[5];
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private void setRepeat(int idx, boolean repeatX, boolean repeatY) {
+        if (repeatX) {
+            repeatXMask |= 1 << idx;
+        }
+        if (repeatY) {
+            repeatYMask |= 1 << idx;
+        }
+    }
+}
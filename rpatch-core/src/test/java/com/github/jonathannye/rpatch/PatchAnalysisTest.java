@@ -0,0 +1,64 @@
+package com.github.jonathannye.rpatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PatchAnalysisTest {
+
+    @Test
+    public void solidColor() {
+        PatchAnalysis analysis = analyze(0xFF112233, 0xFF112233, 0xFF112233);
+        assertTrue(analysis.isOpaque());
+        assertFalse(analysis.isTransparent());
+        assertEquals(0xFF112233, analysis.getColor());
+        assertEquals(0xFF112233, analysis.getSolidColor());
+    }
+
+    @Test
+    public void oneColorWithVaryingAlpha() {
+        PatchAnalysis analysis = analyze(0x80112233, 0xFF112233, 0x00FFFFFF);
+        assertFalse(analysis.isOpaque());
+        assertFalse(analysis.isTransparent());
+        // Invisible pixels don't count towards the color, but do rule out a solid fill
+        assertEquals(0xFF112233, analysis.getColor());
+        assertEquals(0, analysis.getSolidColor());
+    }
+
+    @Test
+    public void mixedColors() {
+        PatchAnalysis analysis = analyze(0xFF112233, 0xFF112234);
+        assertTrue(analysis.isOpaque());
+        assertEquals(0, analysis.getColor());
+        assertEquals(0, analysis.getSolidColor());
+    }
+
+    @Test
+    public void transparent() {
+        PatchAnalysis analysis = analyze(0, 0x00FF0000);
+        assertFalse(analysis.isOpaque());
+        assertTrue(analysis.isTransparent());
+        assertEquals(0, analysis.getColor());
+        assertEquals(0, analysis.getSolidColor());
+    }
+
+    @Test
+    public void resetStartsOver() {
+        PatchAnalysis analysis = analyze(0xFF112233, 0x00000000);
+        analysis.reset();
+        analysis.addPixels(new int[]{0, 0xFF445566, 0}, 1, 1);
+        assertTrue(analysis.isOpaque());
+        assertEquals(0xFF445566, analysis.getSolidColor());
+    }
+
+    private static PatchAnalysis analyze(int... pixels) {
+        PatchAnalysis analysis = new PatchAnalysis();
+        // Fed one pixel per row, like a one pixel wide patch
+        for (int i = 0; i < pixels.length; i++) {
+            analysis.addPixels(pixels, i, 1);
+        }
+        return analysis;
+    }
+}
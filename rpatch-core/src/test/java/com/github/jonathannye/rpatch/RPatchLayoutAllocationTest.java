@@ -0,0 +1,98 @@
+package com.github.jonathannye.rpatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_INNER_BOTH;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_MODE_CUTOFF;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_MODE_DISCRETE;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_OUTER_ALL;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * RPatch lays out from onBoundsChange, so a resize animation lays out on every frame; none of it
+ * may allocate. Counted with HotSpot's per-thread allocation counter, and skipped on JVMs without
+ * one.
+ */
+public class RPatchLayoutAllocationTest {
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 100000;
+    // Slack for the counter itself and anything the JIT does on this thread while measuring;
+    // one small array per call would already be over a megabyte
+    private static final long MAX_BYTES = 4096;
+
+    private com.sun.management.ThreadMXBean mThreads;
+
+    @Before
+    public void setUp() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void layoutDoesNotAllocate() {
+        RPatchLayout layout = new RPatchLayout(new int[]{4, 8, 4, 3, 6, 3});
+        int checksum = layoutAll(layout, WARMUP);
+
+        long before = allocatedBytes();
+        checksum += layoutAll(layout, ITERATIONS);
+        long allocated = allocatedBytes() - before;
+
+        assertTrue("layout allocated " + allocated + " bytes over " + ITERATIONS + " calls "
+                + "(checksum " + checksum + ")", allocated < MAX_BYTES);
+    }
+
+    @Test
+    public void meshReusesVertices() {
+        RPatchLayout layout = new RPatchLayout(new int[]{4, 8, 4, 3, 6, 3});
+        layout.layout(0, 0, 100, 100, REPEAT_MODE_CUTOFF, false);
+        float[] verts = layout.mesh(1, 0, 0, 2, 2, null, Integer.MAX_VALUE);
+        assertNotNull(verts);
+        meshAll(layout, verts, WARMUP);
+
+        long before = allocatedBytes();
+        meshAll(layout, verts, ITERATIONS);
+        long allocated = allocatedBytes() - before;
+
+        assertTrue("mesh allocated " + allocated + " bytes over " + ITERATIONS + " calls",
+                allocated < MAX_BYTES);
+    }
+
+    private long allocatedBytes() {
+        return mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Cycles through sizes and modes like a resize animation; the sum keeps it from being
+    // optimized away
+    private static int layoutAll(RPatchLayout layout, int count) {
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            int flags = (i & 1) == 0
+                    ? REPEAT_MODE_DISCRETE : REPEAT_MODE_CUTOFF | REPEAT_INNER_BOTH;
+            if ((i & 2) != 0) {
+                flags |= REPEAT_OUTER_ALL;
+            }
+            layout.layout(0, 0, 16 + i % 200, 12 + i % 150, flags, (i & 4) != 0);
+            sum += layout.regions[4 * 4 + 2];
+        }
+        return sum;
+    }
+
+    private static void meshAll(RPatchLayout layout, float[] verts, int count) {
+        for (int i = 0; i < count; i++) {
+            layout.layout(0, 0, 16 + i % 200, 12 + i % 150, REPEAT_MODE_CUTOFF, false);
+            if (layout.mesh(1, 0, 0, 2, 2, verts, Integer.MAX_VALUE) != verts) {
+                throw new AssertionError("mesh replaced its vertex array");
+            }
+        }
+    }
+}
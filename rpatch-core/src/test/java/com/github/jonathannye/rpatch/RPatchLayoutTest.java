@@ -0,0 +1,415 @@
+package com.github.jonathannye.rpatch;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.github.jonathannye.rpatch.RPatchLayout.IDX_BOT_RIGHT;
+import static com.github.jonathannye.rpatch.RPatchLayout.IDX_MID;
+import static com.github.jonathannye.rpatch.RPatchLayout.IDX_MID_LEFT;
+import static com.github.jonathannye.rpatch.RPatchLayout.IDX_MID_RIGHT;
+import static com.github.jonathannye.rpatch.RPatchLayout.IDX_TOP_LEFT;
+import static com.github.jonathannye.rpatch.RPatchLayout.IDX_TOP_MID;
+import static com.github.jonathannye.rpatch.RPatchLayout.IDX_TOP_RIGHT;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_INNER_BOTH;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_INNER_X;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_MODE_CUTOFF;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_MODE_DISCRETE;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_OUTER_ALL;
+import static com.github.jonathannye.rpatch.RPatchLayout.REPEAT_OUTER_LEFT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RPatchLayoutTest {
+
+    private static final int MARKER = 0xFF000000;
+    private static final float EPSILON = 0.0001f;
+
+    // 4 + 8 + 4 wide and 3 + 6 + 3 high, without the border
+    private static final int[] BOUNDS = {4, 8, 4, 3, 6, 3};
+
+    @Test
+    public void scanBorderFindsMarkers() {
+        int[] bounds = RPatchLayout.scanBorder(border(18, 5, 12), border(14, 4, 9));
+        assertArrayEquals(BOUNDS, bounds);
+    }
+
+    @Test
+    public void scanBorderIgnoresTransparentPixels() {
+        int[] topRow = border(18, 5, 12);
+        // Translucent pixels still count, fully transparent colored ones don't
+        topRow[7] = 0x00FFFFFF;
+        topRow[12] = 0x01000000;
+        topRow[14] = 0x00FF0000;
+        assertArrayEquals(BOUNDS, RPatchLayout.scanBorder(topRow, border(14, 4, 9)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scanBorderRejectsMissingMarkers() {
+        RPatchLayout.scanBorder(new int[18], border(14, 4, 9));
+    }
+
+    @Test
+    public void scaleBoundsRoundsEdges() {
+        assertArrayEquals(new int[]{6, 12, 6, 5, 9, 4}, RPatchLayout.scaleBounds(BOUNDS, 1.5f));
+    }
+
+    @Test
+    public void scaleBoundsKeepsPatchesVisible() {
+        assertArrayEquals(new int[]{1, 1, 1, 1, 1, 1},
+                RPatchLayout.scaleBounds(new int[]{1, 1, 1, 1, 1, 1}, 0.25f));
+        assertArrayEquals(new int[]{0, 2, 0, 0, 4, 0},
+                RPatchLayout.scaleBounds(new int[]{0, 1, 0, 0, 2, 0}, 2f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkBorderRejectsGaps() {
+        int[] border = border(18, 5, 12);
+        border[8] = 0;
+        RPatchLayout.checkBorder(border);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkBorderRejectsCorners() {
+        RPatchLayout.checkBorder(border(18, 0, 12));
+    }
+
+    @Test
+    public void discreteLayoutAnchorsTopLeft() {
+        RPatchLayout layout = new RPatchLayout(BOUNDS);
+        // Room for 2.6 middle patches across and 2.7 down
+        layout.layout(10, 20, 39, 42, REPEAT_MODE_DISCRETE, false);
+
+        assertRegion(layout, IDX_TOP_LEFT, 10, 20, 14, 23);
+        assertRegion(layout, IDX_MID, 14, 23, 30, 35);
+        assertRegion(layout, IDX_BOT_RIGHT, 30, 35, 34, 38);
+    }
+
+    @Test
+    public void discreteLayoutCentered() {
+        RPatchLayout layout = new RPatchLayout(BOUNDS);
+        layout.layout(10, 20, 39, 42, REPEAT_MODE_DISCRETE, true);
+
+        // An odd leftover leaves the extra pixel to the middle patch
+        assertRegion(layout, IDX_TOP_LEFT, 12, 22, 16, 25);
+        assertRegion(layout, IDX_MID, 16, 25, 33, 37);
+        assertRegion(layout, IDX_BOT_RIGHT, 33, 37, 37, 40);
+    }
+
+    @Test
+    public void cutoffLayoutFillsBounds() {
+        RPatchLayout layout = new RPatchLayout(BOUNDS);
+        layout.layout(10, 20, 39, 42, REPEAT_MODE_CUTOFF, true);
+
+        assertRegion(layout, IDX_TOP_LEFT, 10, 20, 14, 23);
+        assertRegion(layout, IDX_MID, 14, 23, 35, 39);
+        assertRegion(layout, IDX_BOT_RIGHT, 35, 39, 39, 42);
+    }
+
+    @Test
+    public void stretchedPatchesScaleOverTheirRegion() {
+        RPatchLayout layout = new RPatchLayout(BOUNDS);
+        layout.layout(10, 20, 39, 42, REPEAT_MODE_CUTOFF, false);
+
+        assertFalse(layout.repeatsX(IDX_MID));
+        assertFalse(layout.repeatsY(IDX_MID));
+        assertTransform(layout, IDX_MID, 21 / 8f, 16 / 6f, 14, 23);
+        // Edges always repeat along the side they run down
+        assertTrue(layout.repeatsY(IDX_TOP_MID));
+        assertTransform(layout, IDX_TOP_MID, 21 / 8f, 1, 14, 20);
+        assertTransform(layout, IDX_MID_LEFT, 1, 16 / 6f, 10, 23);
+        assertTransform(layout, IDX_TOP_LEFT, 1, 1, 10, 20);
+    }
+
+    @Test
+    public void repeatedPatchesKeepTheirScale() {
+        RPatchLayout layout = new RPatchLayout(BOUNDS);
+        layout.layout(10, 20, 39, 42, REPEAT_MODE_CUTOFF | REPEAT_INNER_BOTH | REPEAT_OUTER_ALL,
+                false);
+
+        for (int i = 0; i < 9; i++) {
+            int r = i * 4;
+            assertEquals(1, layout.transforms[r], EPSILON);
+            assertEquals(1, layout.transforms[r + 1], EPSILON);
+            assertEquals(layout.regions[r], layout.transforms[r + 2], EPSILON);
+            assertEquals(layout.regions[r + 1], layout.transforms[r + 3], EPSILON);
+        }
+    }
+
+    @Test
+    public void emptyCornersAndEdges() {
+        RPatchLayout layout = new RPatchLayout(new int[]{0, 8, 0, 0, 6, 0});
+        layout.layout(0, 0, 20, 20, REPEAT_MODE_DISCRETE, false);
+
+        assertRegion(layout, IDX_TOP_LEFT, 0, 0, 0, 0);
+        assertRegion(layout, IDX_MID, 0, 0, 16, 18);
+        assertRegion(layout, IDX_BOT_RIGHT, 16, 18, 16, 18);
+        assertTransform(layout, IDX_MID_LEFT, 1, 18 / 6f, 0, 0);
+        assertTransform(layout, IDX_TOP_MID, 2, 1, 0, 0);
+    }
+
+    @Test
+    public void emptyMiddlePatches() {
+        RPatchLayout layout = new RPatchLayout(new int[]{4, 0, 4, 3, 0, 3});
+        layout.layout(0, 0, 20, 20, REPEAT_MODE_DISCRETE, true);
+
+        // Nothing to repeat, so the corners meet in the middle of the bounds
+        assertRegion(layout, IDX_TOP_LEFT, 6, 7, 10, 10);
+        assertRegion(layout, IDX_MID, 10, 10, 10, 10);
+        assertRegion(layout, IDX_BOT_RIGHT, 10, 10, 14, 13);
+        for (float value : layout.transforms) {
+            assertFalse(Float.isNaN(value) || Float.isInfinite(value));
+        }
+    }
+
+    @Test
+    public void drawHandsRegionsToCanvas() {
+        RPatchLayout layout = new RPatchLayout(BOUNDS);
+        layout.layout(10, 20, 39, 42, REPEAT_MODE_CUTOFF | REPEAT_INNER_X, false);
+        final StringBuilder calls = new StringBuilder();
+        layout.draw(new RPatchCanvas() {
+            @Override
+            public void drawCorner(int idx, int left, int top, int right, int bottom) {
+                calls.append(idx).append(" corner ").append(left).append(',').append(top)
+                        .append(',').append(right).append(',').append(bottom).append('\n');
+            }
+
+            @Override
+            public void fillRegion(int idx, int left, int top, int right, int bottom,
+                                   float scaleX, float scaleY, float originX, float originY) {
+                calls.append(idx).append(" fill ").append(left).append(',').append(top)
+                        .append(',').append(right).append(',').append(bottom).append(' ')
+                        .append(scaleX).append(',').append(scaleY).append(' ')
+                        .append(originX).append(',').append(originY).append('\n');
+            }
+        });
+        assertEquals("0 corner 10,20,14,23\n"
+                + "1 fill 14,20,35,23 2.625,1.0 14.0,20.0\n"
+                + "2 corner 35,20,39,23\n"
+                + "3 fill 10,23,14,39 1.0,2.6666667 10.0,23.0\n"
+                + "4 fill 14,23,35,39 1.0,2.6666667 14.0,23.0\n"
+                + "5 fill 35,23,39,39 1.0,2.6666667 35.0,23.0\n"
+                + "6 corner 10,39,14,42\n"
+                + "7 fill 14,39,35,42 2.625,1.0 14.0,39.0\n"
+                + "8 corner 35,39,39,42\n", calls.toString());
+    }
+
+    @Test
+    public void drawSkipsEmptyRegions() {
+        RPatchLayout layout = new RPatchLayout(new int[]{4, 0, 4, 3, 6, 0});
+        layout.layout(0, 0, 20, 20, REPEAT_MODE_CUTOFF, false);
+        final int[] drawn = new int[1];
+        layout.draw(new RPatchCanvas() {
+            @Override
+            public void drawCorner(int idx, int left, int top, int right, int bottom) {
+                drawn[0] |= 1 << idx;
+            }
+
+            @Override
+            public void fillRegion(int idx, int left, int top, int right, int bottom,
+                                   float scaleX, float scaleY, float originX, float originY) {
+                drawn[0] |= 1 << idx;
+            }
+        });
+        // The empty middle column and bottom row have nothing to draw from
+        assertEquals((1 << IDX_TOP_LEFT) | (1 << IDX_TOP_RIGHT) | (1 << IDX_MID_LEFT)
+                | (1 << IDX_MID_RIGHT), drawn[0]);
+    }
+
+    @Test
+    public void meshStepSpansEveryPatch() {
+        assertEquals(4, RPatchLayout.meshStep(0, 4, 8, 4));
+        // The middle patch isn't resampled to fit the corners' grid
+        assertEquals(2, RPatchLayout.meshStep(0, 4, 6, 4));
+        assertEquals(1, RPatchLayout.meshStep(0, 5, 8, 7));
+        // The border has to collapse onto a grid line of its own
+        assertEquals(1, RPatchLayout.meshStep(1, 4, 8, 4));
+        assertEquals(9, RPatchLayout.meshStep(0, 0, 9, 0));
+        assertEquals(0, RPatchLayout.meshStep(0, 0, 0, 0));
+    }
+
+    @Test
+    public void meshMapsGridOntoRegions() {
+        RPatchLayout layout = new RPatchLayout(BOUNDS);
+        layout.layout(10, 20, 39, 42, REPEAT_MODE_CUTOFF, false);
+
+        float[] verts = layout.mesh(0, 0, 0, 2, 2, null, 25);
+        assertEquals(4, layout.meshColumns);
+        assertEquals(4, layout.meshRows);
+        assertArrayEquals(new float[]{10, 14, 24.5f, 35, 39}, alongRow(verts, 0, 0), EPSILON);
+        assertArrayEquals(new float[]{20, 23, 31, 39, 42}, alongColumn(verts, 0, 1), EPSILON);
+        assertEquals(null, layout.mesh(0, 0, 0, 2, 2, null, 24));
+    }
+
+    @Test
+    public void meshCollapsesBorder() {
+        RPatchLayout layout = new RPatchLayout(BOUNDS);
+        layout.layout(10, 20, 39, 42, REPEAT_MODE_CUTOFF, false);
+
+        float[] verts = layout.mesh(1, 0, 0, 2, 2, null, Integer.MAX_VALUE);
+        assertEquals(18, layout.meshColumns);
+        assertEquals(14, layout.meshRows);
+        assertEquals(10, verts[0], EPSILON);
+        assertEquals(10, verts[2], EPSILON);
+        assertEquals(11, verts[4], EPSILON);
+        assertEquals(39, verts[17 * 2], EPSILON);
+        assertEquals(39, verts[18 * 2], EPSILON);
+    }
+
+    // Drawing a block through the mesh has to put every source pixel where drawing its region
+    // with the region's transform would, or meshed and unmeshed frames would differ
+    @Test
+    public void meshMatchesRegionTransforms() {
+        int[][] allBounds = {BOUNDS, {2, 6, 4, 3, 9, 6}, {0, 5, 3, 4, 0, 2}};
+        int[] blocks = new int[8];
+        for (int[] bounds : allBounds) {
+            RPatchLayout layout = new RPatchLayout(bounds);
+            for (int flags = 0; flags < 128; flags++) {
+                for (int inset = 0; inset <= 1; inset++) {
+                    layout.layout(7, 5, 61, 53, flags, (flags & 1) != 0);
+                    int count = layout.meshBlocks(blocks);
+                    for (int b = 0; b < count; b++) {
+                        int[] block = block(blocks, b);
+                        float[] verts = layout.mesh(inset, block[0], block[1], block[2],
+                                block[3], null, Integer.MAX_VALUE);
+                        String context = "bounds " + Arrays.toString(bounds)
+                                + ", flags " + flags + ", inset " + inset + ", block " + b;
+                        int stepX = RPatchLayout.meshStep(inset, bounds[0], bounds[1], bounds[2]);
+                        int stepY = RPatchLayout.meshStep(inset, bounds[3], bounds[4], bounds[5]);
+                        for (int col = 0; col <= layout.meshColumns; col++) {
+                            assertEquals(context, expectedMeshX(layout, inset, block, col * stepX),
+                                    verts[col * 2], EPSILON);
+                        }
+                        int stride = (layout.meshColumns + 1) * 2;
+                        for (int row = 0; row <= layout.meshRows; row++) {
+                            assertEquals(context, expectedMeshY(layout, inset, block, row * stepY),
+                                    verts[row * stride + 1], EPSILON);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void meshCollapsesPatchesOutsideBlock() {
+        RPatchLayout layout = new RPatchLayout(BOUNDS);
+        layout.layout(10, 20, 39, 42, REPEAT_MODE_CUTOFF, false);
+
+        float[] verts = layout.mesh(0, 0, 0, 2, 0, null, 25);
+        assertArrayEquals(new float[]{20, 23, 23, 23, 23}, alongColumn(verts, 0, 1), EPSILON);
+        verts = layout.mesh(0, 1, 0, 2, 2, verts, 25);
+        assertArrayEquals(new float[]{14, 14, 24.5f, 35, 39}, alongRow(verts, 0, 0), EPSILON);
+    }
+
+    @Test
+    public void meshBlocksAvoidRepeatingRegions() {
+        RPatchLayout layout = new RPatchLayout(BOUNDS);
+        int[] blocks = new int[8];
+
+        layout.layout(0, 0, 100, 100, REPEAT_MODE_CUTOFF, false);
+        assertEquals(1, layout.meshBlocks(blocks));
+        assertArrayEquals(new int[]{0, 0, 2, 2}, block(blocks, 0));
+
+        // Only the middle row holds a repeating region
+        layout.layout(0, 0, 100, 100, REPEAT_MODE_CUTOFF | REPEAT_INNER_X, false);
+        assertEquals(2, layout.meshBlocks(blocks));
+        assertArrayEquals(new int[]{0, 0, 2, 0}, block(blocks, 0));
+        assertArrayEquals(new int[]{0, 2, 2, 2}, block(blocks, 1));
+
+        // Leaving out the left column is cheaper than the middle row
+        layout.layout(0, 0, 100, 100, REPEAT_MODE_CUTOFF | REPEAT_OUTER_LEFT, false);
+        assertEquals(1, layout.meshBlocks(blocks));
+        assertArrayEquals(new int[]{1, 0, 2, 2}, block(blocks, 0));
+
+        layout.layout(0, 0, 100, 100, REPEAT_MODE_CUTOFF | REPEAT_INNER_BOTH | REPEAT_OUTER_ALL,
+                false);
+        assertEquals(0, layout.meshBlocks(blocks));
+    }
+
+    // Where the block's transforms put source column x: patches outside the block, and the
+    // border, land on the block's edges
+    private static float expectedMeshX(RPatchLayout layout, int inset, int[] block, int x) {
+        int start = inset;
+        for (int col = 0; col < 3; col++) {
+            int end = start + layout.getPatchWidth(col);
+            if (x >= start && x <= end && col >= block[0] && col <= block[2]) {
+                int r = (block[1] * 3 + col) * 4;
+                return layout.transforms[r + 2] + (x - start) * layout.transforms[r];
+            }
+            start = end;
+        }
+        int firstStart = inset;
+        for (int col = 0; col < block[0]; col++) {
+            firstStart += layout.getPatchWidth(col);
+        }
+        return x < firstStart ? layout.regions[block[0] * 4]
+                : layout.regions[block[2] * 4 + 2];
+    }
+
+    private static float expectedMeshY(RPatchLayout layout, int inset, int[] block, int y) {
+        int start = inset;
+        for (int row = 0; row < 3; row++) {
+            int end = start + layout.getPatchHeight(row * 3);
+            if (y >= start && y <= end && row >= block[1] && row <= block[3]) {
+                int r = (row * 3 + block[0]) * 4;
+                return layout.transforms[r + 3] + (y - start) * layout.transforms[r + 1];
+            }
+            start = end;
+        }
+        int firstStart = inset;
+        for (int row = 0; row < block[1]; row++) {
+            firstStart += layout.getPatchHeight(row * 3);
+        }
+        return y < firstStart ? layout.regions[block[1] * 3 * 4 + 1]
+                : layout.regions[block[3] * 3 * 4 + 3];
+    }
+
+    // One coordinate, x (0) or y (1), of every vertex along a row or column of a 5 by 5 grid
+    private static float[] alongRow(float[] verts, int row, int coordinate) {
+        float[] values = new float[5];
+        for (int col = 0; col < 5; col++) {
+            values[col] = verts[(row * 5 + col) * 2 + coordinate];
+        }
+        return values;
+    }
+
+    private static float[] alongColumn(float[] verts, int col, int coordinate) {
+        float[] values = new float[5];
+        for (int row = 0; row < 5; row++) {
+            values[row] = verts[(row * 5 + col) * 2 + coordinate];
+        }
+        return values;
+    }
+
+    private static int[] block(int[] blocks, int idx) {
+        int[] block = new int[4];
+        System.arraycopy(blocks, idx * 4, block, 0, 4);
+        return block;
+    }
+
+    // A border edge of the given size with markers from first to last, inclusive
+    private static int[] border(int length, int first, int last) {
+        int[] border = new int[length];
+        for (int i = first; i <= last; i++) {
+            border[i] = MARKER;
+        }
+        return border;
+    }
+
+    private static void assertRegion(RPatchLayout layout, int idx,
+                                     int left, int top, int right, int bottom) {
+        int[] region = new int[4];
+        System.arraycopy(layout.regions, idx * 4, region, 0, 4);
+        assertArrayEquals(new int[]{left, top, right, bottom}, region);
+    }
+
+    private static void assertTransform(RPatchLayout layout, int idx,
+                                        float scaleX, float scaleY, float tx, float ty) {
+        float[] transform = new float[4];
+        System.arraycopy(layout.transforms, idx * 4, transform, 0, 4);
+        assertArrayEquals(new float[]{scaleX, scaleY, tx, ty}, transform, EPSILON);
+    }
+}
@@ -0,0 +1,214 @@
+package com.github.jonathannye.rpatch.plugin;
+
+import com.github.jonathannye.rpatch.RPatchLayout;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Scans {@code drawable-*} directories for RPatch assets, validates their border markers, writes
+ * copies with the one pixel border stripped, and generates a class holding the patch boundaries
+ * of every asset for use with {@code RPatch(Context, int, int[])}.
+ */
+@Mojo(name = "preprocess", defaultPhase = LifecyclePhase.GENERATE_SOURCES)
+public class PreprocessMojo extends AbstractMojo {
+
+    // Mirrors android.util.TypedValue
+    private static final int DENSITY_DEFAULT = 0;
+    private static final int DENSITY_NONE = 0xffff;
+
+    private static final String[] DENSITY_QUALIFIERS = {
+            "ldpi", "mdpi", "tvdpi", "hdpi", "xhdpi", "xxhdpi", "xxxhdpi", "nodpi"};
+    private static final int[] DENSITIES = {120, 160, 213, 240, 320, 480, 640, DENSITY_NONE};
+
+    /**
+     * Resource-style directory holding RPatch assets in drawable-* subdirectories. Every PNG in
+     * it is treated as an RPatch asset, so keep these out of the regular res directory.
+     */
+    @Parameter(defaultValue = "${project.basedir}/rpatch-res", required = true)
+    private File sourceDirectory;
+
+    /**
+     * Where the stripped assets are written, mirroring the layout of the source directory. Add it
+     * to the resource directories of the Android build.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/generated-sources/rpatch/res",
+            required = true)
+    private File outputResourceDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/generated-sources/rpatch/java",
+            required = true)
+    private File outputSourceDirectory;
+
+    @Parameter(required = true)
+    private String packageName;
+
+    @Parameter(defaultValue = "RPatchBounds", required = true)
+    private String className;
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        File[] dirs = sourceDirectory.listFiles();
+        if (dirs == null) {
+            getLog().info("No RPatch assets in " + sourceDirectory);
+            return;
+        }
+        Arrays.sort(dirs);
+
+        // Resource name -> density -> bounds
+        Map<String, Map<Integer, int[]>> assets = new TreeMap<String, Map<Integer, int[]>>();
+        for (File dir : dirs) {
+            if (!dir.isDirectory() || !dir.getName().startsWith("drawable")) {
+                continue;
+            }
+            int density = densityForDirectory(dir.getName());
+            File[] files = dir.listFiles();
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!file.getName().endsWith(".png")) {
+                    continue;
+                }
+                String name = file.getName().substring(0, file.getName().length() - 4);
+                int[] bounds = processAsset(file, new File(outputResourceDirectory, dir.getName()));
+
+                Map<Integer, int[]> byDensity = assets.get(name);
+                if (byDensity == null) {
+                    byDensity = new TreeMap<Integer, int[]>();
+                    assets.put(name, byDensity);
+                }
+                int[] existing = byDensity.get(density);
+                if (existing != null && !Arrays.equals(existing, bounds)) {
+                    throw new MojoFailureException(file + ": variants of an RPatch asset with the"
+                            + " same density must have the same patch boundaries");
+                }
+                byDensity.put(density, bounds);
+            }
+        }
+
+        writeBoundsClass(assets);
+        project.addCompileSourceRoot(outputSourceDirectory.getAbsolutePath());
+        getLog().info("Preprocessed " + assets.size() + " RPatch assets");
+    }
+
+    private static int densityForDirectory(String dirName) {
+        for (String qualifier : dirName.split("-")) {
+            for (int i = 0; i < DENSITY_QUALIFIERS.length; i++) {
+                if (DENSITY_QUALIFIERS[i].equals(qualifier)) {
+                    return DENSITIES[i];
+                }
+            }
+        }
+        return DENSITY_DEFAULT;
+    }
+
+    /**
+     * Validates the asset's border, writes it without the border and returns its patch bounds.
+     */
+    private int[] processAsset(File file, File outputDir)
+            throws MojoExecutionException, MojoFailureException {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(file);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not read " + file, e);
+        }
+        if (image == null) {
+            throw new MojoFailureException(file + " is not a readable PNG");
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] topRow = image.getRGB(0, 0, width, 1, null, 0, width);
+        int[] leftColumn = image.getRGB(0, 0, 1, height, null, 0, 1);
+
+        checkBorder(file, "top", topRow);
+        checkBorder(file, "left", leftColumn);
+
+        // Edge and corner patches may be empty, e.g. for assets without a left or top edge
+        int[] bounds = RPatchLayout.scanBorder(topRow, leftColumn);
+
+        outputDir.mkdirs();
+        File output = new File(outputDir, file.getName());
+        try {
+            ImageIO.write(image.getSubimage(1, 1, width - 2, height - 2), "png", output);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not write " + output, e);
+        }
+        return bounds;
+    }
+
+    private static void checkBorder(File file, String edge, int[] border)
+            throws MojoFailureException {
+        try {
+            RPatchLayout.checkBorder(border);
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException(file + ": " + e.getMessage() + " on the " + edge
+                    + " border");
+        }
+    }
+
+    private void writeBoundsClass(Map<String, Map<Integer, int[]>> assets)
+            throws MojoExecutionException {
+        File dir = new File(outputSourceDirectory, packageName.replace('.', File.separatorChar));
+        dir.mkdirs();
+        File output = new File(dir, className + ".java");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(packageName).append(";\n\n");
+        sb.append("/**\n");
+        sb.append(" * Generated by rpatch-maven-plugin. Groups of density, leftWidth, midWidth,");
+        sb.append(" rightWidth,\n * topHeight, midHeight, botHeight for each RPatch asset.\n");
+        sb.append(" */\n");
+        sb.append("public final class ").append(className).append(" {\n\n");
+        sb.append("    private ").append(className).append("() {\n    }\n");
+        for (Map.Entry<String, Map<Integer, int[]>> asset : assets.entrySet()) {
+            sb.append("\n    public static final int[] ").append(asset.getKey()).append(" = {");
+            boolean first = true;
+            for (Map.Entry<Integer, int[]> variant : asset.getValue().entrySet()) {
+                sb.append(first ? "\n            " : ",\n            ");
+                sb.append(variant.getKey());
+                for (int size : variant.getValue()) {
+                    sb.append(", ").append(size);
+                }
+                first = false;
+            }
+            sb.append("};\n");
+        }
+        sb.append("}\n");
+
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+            writer.write(sb.toString());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not write " + output, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.jonathannye.rpatch;
+
+import android.os.Build;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Global state behind {@link RPatch#setMetrics(RPatchMetrics, int)} and
+ * {@link RPatch#setTracingEnabled(boolean)}. While both are off, callers only read {@link #sEnabled}.
+ */
+final class Instrumentation {
+
+    // android.os.Trace is API 18, newer than the platform RPatch compiles against
+    private static final int API_TRACE = 18;
+    private static final Object[] SECTION_PARSE = {"RPatch.parse"};
+    private static final Object[] SECTION_DRAW = {"RPatch.draw"};
+    private static final Object[] NO_ARGS = {};
+
+    // Read without synchronization on the draw path; install metrics before drawing starts
+    static boolean sEnabled;
+
+    private static RPatchMetrics sMetrics;
+    private static int sSampleInterval;
+    private static int sDrawsUntilSample;
+
+    private static boolean sTracing;
+    private static Method sBeginSection;
+    private static Method sEndSection;
+
+    private Instrumentation() {
+    }
+
+    static synchronized void setMetrics(RPatchMetrics metrics, int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval must be at least 1");
+        }
+        sMetrics = metrics;
+        sSampleInterval = sampleInterval;
+        sDrawsUntilSample = sampleInterval;
+        sEnabled = sMetrics != null || sTracing;
+    }
+
+    static synchronized void setTracingEnabled(boolean enabled) {
+        if (enabled && sBeginSection == null && Build.VERSION.SDK_INT >= API_TRACE) {
+            try {
+                Class<?> trace = Class.forName("android.os.Trace");
+                sBeginSection = trace.getMethod("beginSection", String.class);
+                sEndSection = trace.getMethod("endSection");
+            } catch (ClassNotFoundException e) {
+                sBeginSection = null;
+            } catch (NoSuchMethodException e) {
+                sBeginSection = null;
+            }
+        }
+        sTracing = enabled && sBeginSection != null;
+        sEnabled = sMetrics != null || sTracing;
+    }
+
+    /**
+     * @return The start time to pass to {@link #endParse}
+     */
+    static long beginParse() {
+        if (sTracing) {
+            invoke(sBeginSection, SECTION_PARSE);
+        }
+        return System.nanoTime();
+    }
+
+    static void endParse(long start, int resId, PatchSet patchSet) {
+        long nanos = System.nanoTime() - start;
+        if (sTracing) {
+            invoke(sEndSection, NO_ARGS);
+        }
+        RPatchMetrics metrics = sMetrics;
+        if (metrics != null && patchSet != null) {
+            metrics.onParsed(resId, nanos, patchSet.getDecodedByteCount(),
+                    patchSet.getByteCount());
+        }
+    }
+
+    /**
+     * @return The start time to pass to {@link #endDraw}, or 0 if this draw isn't sampled
+     */
+    static long beginDraw() {
+        if (sTracing) {
+            invoke(sBeginSection, SECTION_DRAW);
+        }
+        // Draws only happen on the main thread
+        if (sMetrics == null || --sDrawsUntilSample > 0) {
+            return 0;
+        }
+        sDrawsUntilSample = sSampleInterval;
+        return System.nanoTime();
+    }
+
+    static void endDraw(long start, int resId, int drawCalls) {
+        long nanos = start == 0 ? 0 : System.nanoTime() - start;
+        if (sTracing) {
+            invoke(sEndSection, NO_ARGS);
+        }
+        RPatchMetrics metrics = sMetrics;
+        if (start != 0 && metrics != null) {
+            metrics.onDraw(resId, drawCalls, nanos);
+        }
+    }
+
+    private static void invoke(Method method, Object[] args) {
+        try {
+            method.invoke(null, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,832 @@
+package com.github.jonathannye.rpatch;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.NinePatch;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.Shader;
+import android.os.Build;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The nine patches cut from an RPatch asset along with their measured sizes. The parsed pixels and
+ * measurements never change, so any number of {@link RPatch} instances may draw from the same set.
+ * What does change is internally synchronized: the reference count, and bitmaps derived on demand
+ * (region-decoded or lazily sliced patches, tiles, mipmaps and the stitched NinePatch), which
+ * memory pressure may drop. Once the last hold is released the patches go to
+ * {@link RPatchBitmapPool} and the set can't be drawn again.
+ */
+public final class PatchSet {
+
+    // LOAD_PRETILE: patches narrower or shorter than this along a repeating axis are tiled
+    static final int TILE_MIN_SIZE = 64;
+    private static final int TILE_X = 1;
+    private static final int TILE_Y = 2;
+
+    // Either the nine cut patches (null where empty), or with LOAD_ZERO_COPY the source they
+    // would be cut from, plus any patches sliced out of it since by getPatch()
+    final Bitmap[] patches = new Bitmap[9];
+    Bitmap source;
+    final Rect[] sourceRects = new Rect[9];
+
+    // PixelFormat.OPAQUE, TRANSLUCENT or TRANSPARENT for the pixels of each patch
+    final int[] opacities = new int[9];
+    // The color shared by every visible pixel of a patch (with full alpha), or 0 if they differ
+    final int[] colors = new int[9];
+    // The color of every pixel of a patch if they are all the same and not transparent, or 0
+    final int[] solidColors = new int[9];
+    // Paint color to draw each patch with; only matters for ALPHA_8 patches, which it tints
+    final int[] paintColors = new int[9];
+    private int opacity;
+
+    // LOAD_REGION_DECODE: patches, and shaders for them, are decoded from here when first needed
+    // and dropped again by releasePatches()
+    private BitmapRegionDecoder decoder;
+    private final BitmapShader[] shaders = new BitmapShader[9];
+
+    // LOAD_PRETILE: small patches repeated into larger tiles along the axes an RPatch repeats them
+    // on, indexed by TILE_X | TILE_Y, built when first needed
+    private boolean pretile;
+    private final Bitmap[][] tiles = new Bitmap[9][];
+
+    // Successively halved copies of each patch, levels 1 and up, built when first needed by
+    // RPatches drawn scaled down
+    private final Bitmap[][] mipmaps = new Bitmap[9][];
+
+    // The patches stitched back together for the platform's renderer, built when first needed
+    private NinePatch ninePatch;
+    private boolean ninePatchFailed;
+    private Bitmap stitched;
+
+    // RPatches and cache entries holding this set; its bitmaps are pooled when the last lets go
+    private int refCount;
+    private boolean released;
+    // Whether the zero-copy source was decoded here rather than handed in by the caller
+    private boolean ownsSource;
+
+    final int leftWidth;
+    final int midWidth;
+    final int rightWidth;
+    final int topHeight;
+    final int midHeight;
+    final int botHeight;
+
+    private int byteCount;
+    private int decodedByteCount;
+    // The resource this was decoded from, or 0, for RPatchMetrics
+    int resId;
+
+    private PatchSet(int inset, int leftWidth, int midWidth, int rightWidth,
+                     int topHeight, int midHeight, int botHeight) {
+        this.leftWidth = leftWidth;
+        this.midWidth = midWidth;
+        this.rightWidth = rightWidth;
+        this.topHeight = topHeight;
+        this.midHeight = midHeight;
+        this.botHeight = botHeight;
+
+        int[] xs = {inset, inset + leftWidth, inset + leftWidth + midWidth,
+                inset + leftWidth + midWidth + rightWidth};
+        int[] ys = {inset, inset + topHeight, inset + topHeight + midHeight,
+                inset + topHeight + midHeight + botHeight};
+        for (int i = 0; i < 9; i++) {
+            int col = i % 3;
+            int row = i / 3;
+            sourceRects[i] = new Rect(xs[col], ys[row], xs[col + 1], ys[row + 1]);
+        }
+    }
+
+    /**
+     * @return {@link PixelFormat#OPAQUE} if every patch is opaque, {@link PixelFormat#TRANSPARENT}
+     * if every patch is fully transparent, {@link PixelFormat#TRANSLUCENT} otherwise
+     */
+    public int getOpacity() {
+        return opacity;
+    }
+
+    /**
+     * @return Approximate number of bytes held by the patch bitmaps. For
+     * {@link RPatch#LOAD_REGION_DECODE} this is what they hold once every patch is decoded.
+     */
+    public int getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return Bytes of the bitmap the patches were sliced from, or 0 for
+     * {@link RPatch#LOAD_REGION_DECODE}
+     */
+    public int getDecodedByteCount() {
+        return decodedByteCount;
+    }
+
+    boolean isRegionDecoded() {
+        return decoder != null;
+    }
+
+    /**
+     * @return The patch at the given index, decoding it first if it was loaded with
+     * {@link RPatch#LOAD_REGION_DECODE} or slicing it out of the source with
+     * {@link RPatch#LOAD_ZERO_COPY}, or null if it is empty or failed to decode
+     */
+    synchronized Bitmap getPatch(int idx) {
+        Bitmap patch = patches[idx];
+        Rect r = sourceRects[idx];
+        if (patch == null && !r.isEmpty()) {
+            if (decoder != null) {
+                patch = decoder.decodeRegion(r, newLoadOptions());
+            } else if (source != null) {
+                Bitmap.Config config = source.getConfig() != null
+                        ? source.getConfig() : Bitmap.Config.ARGB_8888;
+                patch = RPatchBitmapPool.obtain(r.width(), r.height(), config);
+                patch.setDensity(source.getDensity());
+                new Canvas(patch).drawBitmap(source, r, new Rect(0, 0, r.width(), r.height()),
+                        null);
+            }
+            patches[idx] = patch;
+        }
+        return patch;
+    }
+
+    /**
+     * @return A shader repeating the patch at the given index with an identity local matrix, for
+     * {@link RPatch#LOAD_REGION_DECODE}, densely repeating {@link RPatch#LOAD_ZERO_COPY} regions
+     * and {@link RPatchBatch}, or null if there is no patch
+     */
+    synchronized BitmapShader getShader(int idx) {
+        if (shaders[idx] == null) {
+            Bitmap patch = getPatch(idx);
+            if (patch == null) {
+                return null;
+            }
+            shaders[idx] = new BitmapShader(patch, Shader.TileMode.REPEAT,
+                    Shader.TileMode.REPEAT);
+        }
+        return shaders[idx];
+    }
+
+    /**
+     * @return The patch at the given index, or with {@link RPatch#LOAD_PRETILE} a tile repeating it
+     * along the given axes if it is smaller than {@link #TILE_MIN_SIZE} along them. The tile is a
+     * whole number of patches, so it repeats with the same period. Only for sliced sets.
+     */
+    synchronized Bitmap getTile(int idx, boolean repeatX, boolean repeatY) {
+        Bitmap patch = patches[idx];
+        if (!pretile || patch == null) {
+            return patch;
+        }
+        int width = patch.getWidth();
+        int height = patch.getHeight();
+        // Tiling an axis the patch is stretched on would stretch all the copies instead
+        int tileWidth = repeatX && width < TILE_MIN_SIZE
+                ? width * ((TILE_MIN_SIZE + width - 1) / width) : width;
+        int tileHeight = repeatY && height < TILE_MIN_SIZE
+                ? height * ((TILE_MIN_SIZE + height - 1) / height) : height;
+        if (tileWidth == width && tileHeight == height) {
+            return patch;
+        }
+        int variant = (repeatX ? TILE_X : 0) | (repeatY ? TILE_Y : 0);
+        if (tiles[idx] == null) {
+            tiles[idx] = new Bitmap[4];
+        }
+        if (tiles[idx][variant] == null) {
+            Bitmap tile = RPatchBitmapPool.obtain(tileWidth, tileHeight, patch.getConfig());
+            tile.setDensity(patch.getDensity());
+            Paint paint = new Paint();
+            paint.setShader(new BitmapShader(patch, Shader.TileMode.REPEAT,
+                    Shader.TileMode.REPEAT));
+            new Canvas(tile).drawRect(0, 0, tileWidth, tileHeight, paint);
+            tiles[idx][variant] = tile;
+        }
+        return tiles[idx][variant];
+    }
+
+    /**
+     * @return The patch at the given index halved in size {@code level} times (but no smaller than
+     * one pixel), for drawing it scaled down without sampling every pixel. Only for sliced sets.
+     */
+    synchronized Bitmap getMipmap(int idx, int level) {
+        if (level == 0) {
+            return patches[idx];
+        }
+        Bitmap[] levels = mipmaps[idx];
+        if (levels == null || levels.length < level) {
+            Bitmap[] grown = new Bitmap[level];
+            if (levels != null) {
+                System.arraycopy(levels, 0, grown, 0, levels.length);
+            }
+            levels = grown;
+            mipmaps[idx] = levels;
+        }
+        if (levels[level - 1] == null) {
+            Bitmap larger = getMipmap(idx, level - 1);
+            int width = Math.max(1, larger.getWidth() / 2);
+            int height = Math.max(1, larger.getHeight() / 2);
+            levels[level - 1] = width == larger.getWidth() && height == larger.getHeight()
+                    ? larger : Bitmap.createScaledBitmap(larger, width, height, true);
+        }
+        return levels[level - 1];
+    }
+
+    /**
+     * @return A NinePatch equivalent to drawing these patches with nothing repeating, or null if
+     * there isn't one. Only sliced, fully decoded PatchSets have one.
+     */
+    synchronized NinePatch getNinePatch() {
+        if (ninePatch != null || ninePatchFailed) {
+            return ninePatch;
+        }
+        // A NinePatch needs something to stretch on both axes
+        if (source != null || decoder != null || midWidth == 0 || midHeight == 0) {
+            ninePatchFailed = true;
+            return null;
+        }
+        byte[] chunk = ninePatchChunk();
+        if (!NinePatch.isNinePatchChunk(chunk)) {
+            ninePatchFailed = true;
+            return null;
+        }
+
+        int inset = sourceRects[RPatch.IDX_TOP_LEFT].left;
+        stitched = RPatchBitmapPool.obtain(leftWidth + midWidth + rightWidth,
+                topHeight + midHeight + botHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(stitched);
+        Paint paint = new Paint();
+        for (int i = 0; i < 9; i++) {
+            if (patches[i] != null) {
+                paint.setColor(paintColors[i]);
+                canvas.drawBitmap(patches[i], sourceRects[i].left - inset,
+                        sourceRects[i].top - inset, paint);
+            }
+        }
+        ninePatch = new NinePatch(stitched, chunk, null);
+        return ninePatch;
+    }
+
+    // The serialized Res_png_9patch structure that NinePatch takes: a header with the div and
+    // color counts, placeholders for pointers and the (empty) padding, then the divs and colors
+    private byte[] ninePatchChunk() {
+        ByteBuffer chunk = ByteBuffer.allocate(32 + 4 * (2 + 2 + 9)).order(ByteOrder.nativeOrder());
+        chunk.put((byte) 1);
+        chunk.put((byte) 2);
+        chunk.put((byte) 2);
+        chunk.put((byte) 9);
+        chunk.putInt(0);
+        chunk.putInt(0);
+        for (int i = 0; i < 4; i++) {
+            chunk.putInt(0);
+        }
+        chunk.putInt(0);
+        chunk.putInt(leftWidth);
+        chunk.putInt(leftWidth + midWidth);
+        chunk.putInt(topHeight);
+        chunk.putInt(topHeight + midHeight);
+        // Res_png_9patch::NO_COLOR, i.e. every region has to be drawn from the bitmap
+        for (int i = 0; i < 9; i++) {
+            chunk.putInt(1);
+        }
+        return chunk.array();
+    }
+
+    /**
+     * Drops the patches a {@link RPatch#LOAD_REGION_DECODE} PatchSet has decoded so far or a
+     * {@link RPatch#LOAD_ZERO_COPY} one has sliced out of its source, and the stitched and mipmap
+     * bitmaps any PatchSet keeps for drawing through the platform's NinePatch or scaled down; they
+     * are rebuilt when next drawn. The bitmaps aren't recycled since a display list may still
+     * refer to them.
+     */
+    public synchronized void releasePatches() {
+        ninePatch = null;
+        stitched = null;
+        for (int i = 0; i < 9; i++) {
+            mipmaps[i] = null;
+            tiles[i] = null;
+        }
+        if (decoder == null && source == null) {
+            return;
+        }
+        for (int i = 0; i < 9; i++) {
+            patches[i] = null;
+            shaders[i] = null;
+        }
+    }
+
+    synchronized void acquire() {
+        if (released) {
+            throw new IllegalStateException("PatchSet was released");
+        }
+        refCount++;
+    }
+
+    /**
+     * Lets go of a hold taken by {@link #acquire()}, e.g. through
+     * {@link RPatchCache#acquire(android.content.Context, int)}. When the last one goes, the bitmaps
+     * this set owns are handed to {@link RPatchBitmapPool}, and the set can't be used again.
+     */
+    public synchronized void release() {
+        if (released || --refCount > 0) {
+            return;
+        }
+        released = true;
+        for (int i = 0; i < 9; i++) {
+            RPatchBitmapPool.put(patches[i]);
+            patches[i] = null;
+            shaders[i] = null;
+        }
+        if (ownsSource) {
+            RPatchBitmapPool.put(source);
+        }
+        // Holds native memory and an open asset until recycled
+        if (decoder != null) {
+            decoder.recycle();
+            decoder = null;
+        }
+        source = null;
+        RPatchBitmapPool.put(stitched);
+        stitched = null;
+        ninePatch = null;
+        for (int i = 0; i < 9; i++) {
+            mipmaps[i] = null;
+            if (tiles[i] != null) {
+                for (Bitmap tile : tiles[i]) {
+                    RPatchBitmapPool.put(tile);
+                }
+                tiles[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Decodes and parses a resource. Safe to call from any thread.
+     */
+    public static PatchSet decodeResource(Resources res, int resId, int loadFlags) {
+        if (!Instrumentation.sEnabled) {
+            PatchSet set = decode(res, resId, loadFlags);
+            set.resId = resId;
+            return set;
+        }
+        long start = Instrumentation.beginParse();
+        PatchSet set = null;
+        try {
+            set = decode(res, resId, loadFlags);
+            set.resId = resId;
+            return set;
+        } finally {
+            Instrumentation.endParse(start, resId, set);
+        }
+    }
+
+    private static PatchSet decode(Resources res, int resId, int loadFlags) {
+        if ((loadFlags & RPatch.LOAD_REGION_DECODE) != 0
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+            PatchSet lazy = decodeLazily(res, resId, null);
+            if (lazy != null) {
+                return lazy;
+            }
+        }
+        if ((loadFlags & RPatch.LOAD_DENSITY_SCALED) != 0
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+            PatchSet scaled = decodeScaled(res, resId, loadFlags);
+            if (scaled != null) {
+                return scaled;
+            }
+        }
+        Bitmap decoded = decodePooled(res, resId, newLoadOptions());
+        return adoptDecoded(parse(decoded, loadFlags), decoded);
+    }
+
+    // The decoded bitmap is either the set's zero-copy source, which it now owns, or garbage
+    private static PatchSet adoptDecoded(PatchSet set, Bitmap decoded) {
+        if (set.source == decoded) {
+            set.ownsSource = true;
+        } else {
+            RPatchBitmapPool.put(decoded);
+        }
+        return set;
+    }
+
+    /**
+     * Decodes into a pooled bitmap where the platform allows it.
+     */
+    static Bitmap decodePooled(Resources res, int resId, BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && options.inSampleSize <= 1) {
+            return HoneycombDecoder.decode(res, resId, options);
+        }
+        return BitmapFactory.decodeResource(res, resId, options);
+    }
+
+    static BitmapFactory.Options newLoadOptions() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inDither = false;
+        options.inScaled = false;
+        return options;
+    }
+
+    /**
+     * @return Ratio of screen density to the density of the resource variant that was picked, or 1
+     * for density-independent resources
+     */
+    private static float densityScale(Resources res, TypedValue value) {
+        if (value.density == TypedValue.DENSITY_NONE) {
+            return 1.0f;
+        }
+        int density = value.density == TypedValue.DENSITY_DEFAULT
+                ? DisplayMetrics.DENSITY_DEFAULT : value.density;
+        return res.getDisplayMetrics().densityDpi / (float) density;
+    }
+
+    private static int sampleSizeFor(float scale) {
+        int sampleSize = 1;
+        while (scale * sampleSize * 2 <= 1.0f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // LOAD_DENSITY_SCALED: the border is read at full resolution so that its one pixel markers
+    // survive, and only the interior is decoded subsampled. Returns null to fall back to a normal
+    // decode when no downscaling is needed or region decoding fails.
+    private static PatchSet decodeScaled(Resources res, int resId, int loadFlags) {
+        TypedValue value = new TypedValue();
+        InputStream in = res.openRawResource(resId, value);
+        try {
+            float scale = densityScale(res, value);
+            if (scale >= 1.0f) {
+                return null;
+            }
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+            try {
+                int[] bounds = scanBorder(decoder);
+                BitmapFactory.Options options = newLoadOptions();
+                options.inSampleSize = sampleSizeFor(scale);
+                Bitmap interior = decoder.decodeRegion(
+                        new Rect(1, 1, decoder.getWidth() - 1, decoder.getHeight() - 1), options);
+                return fromScaledInterior(interior, bounds, scale, loadFlags);
+            } finally {
+                decoder.recycle();
+            }
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Decodes only the asset's top row and left column to find the patch boundaries
+    private static int[] scanBorder(BitmapRegionDecoder decoder) {
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        BitmapFactory.Options options = newLoadOptions();
+        Bitmap row = decoder.decodeRegion(new Rect(0, 0, width, 1), options);
+        Bitmap column = decoder.decodeRegion(new Rect(0, 0, 1, height), options);
+        int[] topRow = new int[width];
+        row.getPixels(topRow, 0, width, 0, 0, width, 1);
+        int[] leftColumn = new int[height];
+        column.getPixels(leftColumn, 0, 1, 0, 0, 1, height);
+        row.recycle();
+        column.recycle();
+        return RPatchLayout.scanBorder(topRow, leftColumn);
+    }
+
+    // LOAD_REGION_DECODE: keeps a region decoder instead of any pixels. Patch content isn't known
+    // up front, so every non-empty patch counts as translucent and none are elided when drawn.
+    // Returns null to fall back to a normal decode if the decoder can't be created.
+    private static PatchSet decodeLazily(Resources res, int resId, int[] bounds) {
+        InputStream in = res.openRawResource(resId);
+        try {
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+            try {
+                return lazySet(decoder, bounds);
+            } catch (RuntimeException e) {
+                // e.g. no border markers; the decoder holds native memory until recycled
+                decoder.recycle();
+                throw e;
+            }
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static PatchSet lazySet(BitmapRegionDecoder decoder, int[] bounds) {
+        int inset = 0;
+        if (bounds == null) {
+            bounds = scanBorder(decoder);
+            inset = 1;
+        } else if (bounds[0] + bounds[1] + bounds[2] != decoder.getWidth()
+                || bounds[3] + bounds[4] + bounds[5] != decoder.getHeight()) {
+            throw new IllegalArgumentException("RPatch bounds don't match a "
+                    + decoder.getWidth() + "x" + decoder.getHeight() + " bitmap");
+        }
+        PatchSet set = new PatchSet(inset, bounds[0], bounds[1], bounds[2],
+                bounds[3], bounds[4], bounds[5]);
+        set.decoder = decoder;
+        // ARGB_8888, so that the cache budget covers the fully decoded patches
+        set.byteCount = 4 * (bounds[0] + bounds[1] + bounds[2])
+                * (bounds[3] + bounds[4] + bounds[5]);
+        boolean allEmpty = true;
+        for (int i = 0; i < 9; i++) {
+            boolean empty = set.sourceRects[i].isEmpty();
+            set.opacities[i] = empty ? PixelFormat.TRANSPARENT : PixelFormat.TRANSLUCENT;
+            set.paintColors[i] = Color.BLACK;
+            allEmpty &= empty;
+        }
+        set.opacity = allEmpty ? PixelFormat.TRANSPARENT : PixelFormat.TRANSLUCENT;
+        return set;
+    }
+
+    // Brings a (possibly subsampled) border-less bitmap to exactly the scaled patch sizes
+    private static PatchSet fromScaledInterior(Bitmap interior, int[] bounds, float scale,
+                                               int loadFlags) {
+        int[] scaledBounds = RPatchLayout.scaleBounds(bounds, scale);
+        int width = scaledBounds[0] + scaledBounds[1] + scaledBounds[2];
+        int height = scaledBounds[3] + scaledBounds[4] + scaledBounds[5];
+        if (interior.getWidth() != width || interior.getHeight() != height) {
+            Bitmap resized = Bitmap.createScaledBitmap(interior, width, height, true);
+            RPatchBitmapPool.put(interior);
+            interior = resized;
+        }
+        return adoptDecoded(sliceBounds(interior, scaledBounds, loadFlags), interior);
+    }
+
+    /**
+     * Decodes a resource preprocessed by rpatch-maven-plugin.
+     *
+     * @param metadata The generated boundaries for the resource: groups of density followed by the
+     *                 six patch sizes
+     */
+    public static PatchSet decodeResource(Resources res, int resId, int[] metadata,
+                                          int loadFlags) {
+        if (!Instrumentation.sEnabled) {
+            PatchSet set = decode(res, resId, metadata, loadFlags);
+            set.resId = resId;
+            return set;
+        }
+        long start = Instrumentation.beginParse();
+        PatchSet set = null;
+        try {
+            set = decode(res, resId, metadata, loadFlags);
+            set.resId = resId;
+            return set;
+        } finally {
+            Instrumentation.endParse(start, resId, set);
+        }
+    }
+
+    private static PatchSet decode(Resources res, int resId, int[] metadata, int loadFlags) {
+        TypedValue value = new TypedValue();
+        res.getValue(resId, value, true);
+        int[] bounds = new int[6];
+        // Fall back to the first group if the chosen density wasn't preprocessed
+        int group = 0;
+        for (int i = 0; i < metadata.length; i += 7) {
+            if (metadata[i] == value.density) {
+                group = i;
+                break;
+            }
+        }
+        System.arraycopy(metadata, group + 1, bounds, 0, 6);
+
+        if ((loadFlags & RPatch.LOAD_REGION_DECODE) != 0
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+            PatchSet lazy = decodeLazily(res, resId, bounds);
+            if (lazy != null) {
+                return lazy;
+            }
+        }
+        BitmapFactory.Options options = newLoadOptions();
+        float scale = densityScale(res, value);
+        if ((loadFlags & RPatch.LOAD_DENSITY_SCALED) != 0 && scale < 1.0f) {
+            // No border to protect, so the whole asset can be decoded subsampled
+            options.inSampleSize = sampleSizeFor(scale);
+            return fromScaledInterior(BitmapFactory.decodeResource(res, resId, options), bounds,
+                    scale, loadFlags);
+        }
+        Bitmap decoded = decodePooled(res, resId, options);
+        return adoptDecoded(sliceBounds(decoded, bounds, loadFlags), decoded);
+    }
+
+    // TODO: repeatable patch inset from indicated by one on v and h
+    public static PatchSet parseBitmap(Bitmap srcBitmap) {
+        return parseBitmap(srcBitmap, 0);
+    }
+
+    /**
+     * @param loadFlags {@link RPatch#LOAD_ZERO_COPY}, {@link RPatch#LOAD_COMPACT},
+     *                  {@link RPatch#LOAD_PRETILE} or 0. Density scaling only applies when decoding
+     *                  resources.
+     */
+    public static PatchSet parseBitmap(Bitmap srcBitmap, int loadFlags) {
+        if (!Instrumentation.sEnabled) {
+            return parse(srcBitmap, loadFlags);
+        }
+        long start = Instrumentation.beginParse();
+        PatchSet set = null;
+        try {
+            set = parse(srcBitmap, loadFlags);
+            return set;
+        } finally {
+            Instrumentation.endParse(start, 0, set);
+        }
+    }
+
+    private static PatchSet parse(Bitmap srcBitmap, int loadFlags) {
+        int width = srcBitmap.getWidth();
+        int height = srcBitmap.getHeight();
+
+        int[] topRow = new int[width];
+        srcBitmap.getPixels(topRow, 0, width, 0, 0, width, 1);
+        int[] leftColumn = new int[height];
+        srcBitmap.getPixels(leftColumn, 0, 1, 0, 0, 1, height);
+
+        int[] bounds = RPatchLayout.scanBorder(topRow, leftColumn);
+        return slice(srcBitmap, 1, bounds[0], bounds[1], bounds[2],
+                bounds[3], bounds[4], bounds[5], loadFlags);
+    }
+
+    /**
+     * Builds a PatchSet from a border-less bitmap written by rpatch-maven-plugin, using the
+     * boundaries it generated instead of scanning for them.
+     *
+     * @param bounds leftWidth, midWidth, rightWidth, topHeight, midHeight, botHeight
+     */
+    public static PatchSet fromBounds(Bitmap srcBitmap, int[] bounds, int loadFlags) {
+        if (!Instrumentation.sEnabled) {
+            return sliceBounds(srcBitmap, bounds, loadFlags);
+        }
+        long start = Instrumentation.beginParse();
+        PatchSet set = null;
+        try {
+            set = sliceBounds(srcBitmap, bounds, loadFlags);
+            return set;
+        } finally {
+            Instrumentation.endParse(start, 0, set);
+        }
+    }
+
+    private static PatchSet sliceBounds(Bitmap srcBitmap, int[] bounds, int loadFlags) {
+        if (bounds[0] + bounds[1] + bounds[2] != srcBitmap.getWidth()
+                || bounds[3] + bounds[4] + bounds[5] != srcBitmap.getHeight()) {
+            throw new IllegalArgumentException("RPatch bounds don't match a "
+                    + srcBitmap.getWidth() + "x" + srcBitmap.getHeight() + " bitmap");
+        }
+        return slice(srcBitmap, 0, bounds[0], bounds[1], bounds[2],
+                bounds[3], bounds[4], bounds[5], loadFlags);
+    }
+
+    private static PatchSet slice(Bitmap srcBitmap, int inset,
+                                  int leftWidth, int midWidth, int rightWidth,
+                                  int topHeight, int midHeight, int botHeight, int loadFlags) {
+        PatchSet set = new PatchSet(inset, leftWidth, midWidth, rightWidth,
+                topHeight, midHeight, botHeight);
+        set.analyze(srcBitmap);
+        set.decodedByteCount = srcBitmap.getRowBytes() * srcBitmap.getHeight();
+
+        if ((loadFlags & RPatch.LOAD_ZERO_COPY) != 0) {
+            set.source = srcBitmap;
+            set.byteCount = srcBitmap.getRowBytes() * srcBitmap.getHeight();
+        } else {
+            boolean compact = (loadFlags & RPatch.LOAD_COMPACT) != 0;
+            set.pretile = (loadFlags & RPatch.LOAD_PRETILE) != 0;
+            Bitmap.Config config = srcBitmap.getConfig() != null
+                    ? srcBitmap.getConfig() : Bitmap.Config.ARGB_8888;
+            Canvas canvas = new Canvas();
+            Rect dst = new Rect();
+            for (int i = 0; i < 9; i++) {
+                Rect r = set.sourceRects[i];
+                if (r.isEmpty()) {
+                    continue;
+                }
+                // Copied into mutable, possibly pooled, bitmaps so they can be pooled again later
+                Bitmap patch = RPatchBitmapPool.obtain(r.width(), r.height(), config);
+                patch.setDensity(srcBitmap.getDensity());
+                canvas.setBitmap(patch);
+                dst.set(0, 0, r.width(), r.height());
+                canvas.drawBitmap(srcBitmap, r, dst, null);
+                if (compact) {
+                    patch = set.compact(patch, i);
+                }
+                set.patches[i] = patch;
+                set.byteCount += patch.getRowBytes() * patch.getHeight();
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Rebuilds a sliced set from patches read back by {@link RPatchDiskCache}. The caller fills in
+     * the per-patch opacities and colors.
+     *
+     * @param bounds leftWidth, midWidth, rightWidth, topHeight, midHeight, botHeight
+     */
+    static PatchSet restore(int inset, int[] bounds, Bitmap[] patches, int opacity,
+                            int decodedByteCount, int loadFlags) {
+        PatchSet set = new PatchSet(inset, bounds[0], bounds[1], bounds[2],
+                bounds[3], bounds[4], bounds[5]);
+        set.pretile = (loadFlags & RPatch.LOAD_PRETILE) != 0;
+        for (int i = 0; i < 9; i++) {
+            set.patches[i] = patches[i];
+            if (patches[i] != null) {
+                set.byteCount += patches[i].getRowBytes() * patches[i].getHeight();
+            }
+        }
+        set.opacity = opacity;
+        set.decodedByteCount = decodedByteCount;
+        return set;
+    }
+
+    // Classifies the pixels of every patch, one row at a time
+    private void analyze(Bitmap srcBitmap) {
+        int[] row = new int[srcBitmap.getWidth()];
+        PatchAnalysis analysis = new PatchAnalysis();
+        boolean allOpaque = true;
+        boolean allTransparent = true;
+        for (int i = 0; i < 9; i++) {
+            Rect r = sourceRects[i];
+            analysis.reset();
+            for (int y = r.top; y < r.bottom; y++) {
+                srcBitmap.getPixels(row, 0, r.width(), r.left, y, r.width(), 1);
+                analysis.addPixels(row, 0, r.width());
+            }
+            boolean opaque = analysis.isOpaque();
+            boolean transparent = analysis.isTransparent();
+            opacities[i] = opaque ? PixelFormat.OPAQUE
+                    : transparent ? PixelFormat.TRANSPARENT : PixelFormat.TRANSLUCENT;
+            colors[i] = analysis.getColor();
+            solidColors[i] = analysis.getSolidColor();
+            paintColors[i] = Color.BLACK;
+            // Empty patches are never drawn, so they don't affect the overall opacity
+            if (!r.isEmpty()) {
+                allOpaque &= opaque;
+                allTransparent &= transparent;
+            }
+        }
+        opacity = allOpaque ? PixelFormat.OPAQUE
+                : allTransparent ? PixelFormat.TRANSPARENT : PixelFormat.TRANSLUCENT;
+    }
+
+    // LOAD_COMPACT: opaque patches lose their alpha channel, and translucent patches of a single
+    // color keep only their alpha channel and are tinted with that color when drawn
+    private Bitmap compact(Bitmap patch, int idx) {
+        Bitmap compacted = null;
+        if (opacities[idx] == PixelFormat.OPAQUE) {
+            compacted = patch.copy(Bitmap.Config.RGB_565, false);
+        } else if (opacities[idx] == PixelFormat.TRANSLUCENT && colors[idx] != 0) {
+            compacted = patch.extractAlpha();
+            if (compacted != null) {
+                paintColors[idx] = colors[idx];
+            }
+        }
+        if (compacted == null) {
+            return patch;
+        }
+        RPatchBitmapPool.put(patch);
+        return compacted;
+    }
+
+    // Only loaded on API 11+
+    private static class HoneycombDecoder {
+
+        static Bitmap decode(Resources res, int resId, BitmapFactory.Options options) {
+            // Mutable so that the bitmap can be pooled once it's no longer needed
+            options.inMutable = true;
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeResource(res, resId, options);
+            options.inJustDecodeBounds = false;
+
+            Bitmap pooled = RPatchBitmapPool.get(options.outWidth, options.outHeight,
+                    Bitmap.Config.ARGB_8888);
+            if (pooled != null) {
+                options.inBitmap = pooled;
+                try {
+                    return BitmapFactory.decodeResource(res, resId, options);
+                } catch (IllegalArgumentException e) {
+                    // The platform couldn't decode into it after all
+                    options.inBitmap = null;
+                    RPatchBitmapPool.put(pooled);
+                }
+            }
+            return BitmapFactory.decodeResource(res, resId, options);
+        }
+    }
+}
@@ -2,60 +2,97 @@ package com.github.jonathannye.rpatch;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.BitmapShader;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.ColorFilter;
 import android.graphics.Matrix;
+import android.graphics.NinePatch;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 public class RPatch extends Drawable {
 
     // Patch indices
-    private static final int IDX_TOP_LEFT = 0;
-    private static final int IDX_TOP_MID = 1;
-    private static final int IDX_TOP_RIGHT = 2;
-    private static final int IDX_MID_LEFT = 3;
-    private static final int IDX_MID = 4;
-    private static final int IDX_MID_RIGHT = 5;
-    private static final int IDX_BOT_LEFT = 6;
-    private static final int IDX_BOT_MID = 7;
-    private static final int IDX_BOT_RIGHT = 8;
+    static final int IDX_TOP_LEFT = RPatchLayout.IDX_TOP_LEFT;
+    static final int IDX_TOP_MID = RPatchLayout.IDX_TOP_MID;
+    static final int IDX_TOP_RIGHT = RPatchLayout.IDX_TOP_RIGHT;
+    static final int IDX_MID_LEFT = RPatchLayout.IDX_MID_LEFT;
+    static final int IDX_MID = RPatchLayout.IDX_MID;
+    static final int IDX_MID_RIGHT = RPatchLayout.IDX_MID_RIGHT;
+    static final int IDX_BOT_LEFT = RPatchLayout.IDX_BOT_LEFT;
+    static final int IDX_BOT_MID = RPatchLayout.IDX_BOT_MID;
+    static final int IDX_BOT_RIGHT = RPatchLayout.IDX_BOT_RIGHT;
 
     // Patch repetition flags
-    public static final int REPEAT_INNER_X = 1;
-    public static final int REPEAT_INNER_Y = 1 << 1;
-    public static final int REPEAT_INNER_BOTH = REPEAT_INNER_X | REPEAT_INNER_Y;
-    public static final int REPEAT_INNER_NONE = 0;
-    public static final int REPEAT_OUTER_TOP = 1 << 2;
-    public static final int REPEAT_OUTER_BOTTOM = 1 << 3;
-    public static final int REPEAT_OUTER_LEFT = 1 << 4;
-    public static final int REPEAT_OUTER_RIGHT = 1 << 5;
-    public static final int REPEAT_OUTER_ALL = REPEAT_OUTER_TOP | REPEAT_OUTER_BOTTOM
-            | REPEAT_OUTER_LEFT | REPEAT_OUTER_RIGHT;
-    public static final int REPEAT_OUTER_NONE = 0;
+    public static final int REPEAT_INNER_X = RPatchLayout.REPEAT_INNER_X;
+    public static final int REPEAT_INNER_Y = RPatchLayout.REPEAT_INNER_Y;
+    public static final int REPEAT_INNER_BOTH = RPatchLayout.REPEAT_INNER_BOTH;
+    public static final int REPEAT_INNER_NONE = RPatchLayout.REPEAT_INNER_NONE;
+    public static final int REPEAT_OUTER_TOP = RPatchLayout.REPEAT_OUTER_TOP;
+    public static final int REPEAT_OUTER_BOTTOM = RPatchLayout.REPEAT_OUTER_BOTTOM;
+    public static final int REPEAT_OUTER_LEFT = RPatchLayout.REPEAT_OUTER_LEFT;
+    public static final int REPEAT_OUTER_RIGHT = RPatchLayout.REPEAT_OUTER_RIGHT;
+    public static final int REPEAT_OUTER_ALL = RPatchLayout.REPEAT_OUTER_ALL;
+    public static final int REPEAT_OUTER_NONE = RPatchLayout.REPEAT_OUTER_NONE;
 
     // Repetition
-    public static final int REPEAT_MODE_CUTOFF = 1 << 6;
-    public static final int REPEAT_MODE_DISCRETE = 0;
+    public static final int REPEAT_MODE_CUTOFF = RPatchLayout.REPEAT_MODE_CUTOFF;
+    public static final int REPEAT_MODE_DISCRETE = RPatchLayout.REPEAT_MODE_DISCRETE;
 
-    private static BitmapFactory.Options LOAD_OPTIONS;
+    // Load flags
+    public static final int LOAD_ZERO_COPY = 1;
+    public static final int LOAD_DENSITY_SCALED = 1 << 1;
+    public static final int LOAD_COMPACT = 1 << 2;
+    public static final int LOAD_REGION_DECODE = 1 << 3;
+    public static final int LOAD_PRETILE = 1 << 4;
 
-    static {
-        LOAD_OPTIONS = new BitmapFactory.Options();
-        LOAD_OPTIONS.inDither = false;
-        LOAD_OPTIONS.inScaled = false;
-    }
+    private static final String TAG = "RPatch";
+
+    private static final int ALL_REGIONS = (1 << 9) - 1;
+
+    private static final int DRAW_SKIP = 1;
+    private static final int DRAW_FILL = 2;
+
+    // Beyond this, meshable regions are drawn one by one as well
+    private static final int MESH_MAX_VERTICES = 128 * 128;
+    // Hardware-accelerated canvases ignore drawBitmapMesh before API 18
+    private static final int API_HARDWARE_MESH = 18;
+    // Patches drawn at less than 1/256 scale still sample their smallest mipmap
+    private static final int MIPMAP_MAX_LEVEL = 8;
+    // LOAD_ZERO_COPY: regions needing more tiles than this are filled by one shader instead
+    private static final int SOURCE_MAX_TILES = 64;
+
+    private static Handler sMainHandler;
 
-    private Bitmap[] patches = new Bitmap[9];
+    private RPatchState mState;
+    private boolean mMutated;
 
-    // 0 implies REPEAT_MODE_DISCRETE, REPEAT_INNER_BOTH, REPEAT_OUTER_NONE
-    private int repeatFlags = 0;
-    private boolean drawCentered;
+    // Null until an asynchronous load completes
+    private Bitmap[] patches;
+    private Bitmap source;
+    private Rect[] sourceRects;
+    private boolean regionDecoded;
+    private int[] paintColors;
+    // Per patch: 0 to draw its pixels, DRAW_SKIP, or DRAW_FILL with its solid color
+    private final int[] mDrawModes = new int[9];
+    private int[] solidColors;
 
     private int leftWidth;
     private int midWidth;
@@ -63,241 +100,798 @@ public class RPatch extends Drawable {
     private int topHeight;
     private int midHeight;
     private int botHeight;
-    
+
+    private FutureTask<PatchSet> mLoadTask;
+    private LoadResult mLoadResult;
+    private final Paint mPlaceholderPaint = new Paint();
+
+    private RPatchLayout mLayout;
+    private final Rect[] mRegions = new Rect[9];
+    private final BitmapShader[] mShaders = new BitmapShader[9];
+    // What each shader repeats: the patch, or with LOAD_PRETILE possibly a larger tile of it
+    private final Bitmap[] mShaderBitmaps = new Bitmap[9];
+    private final RectF mTileDst = new RectF();
+    private final RegionDrawer mRegionDrawer = new RegionDrawer();
+    private final RenderCache mRenderCache = new RenderCache();
+    private int mOpacity;
+    // Blocks of regions drawn with one drawBitmapMesh call each (see RPatchLayout.meshBlocks),
+    // and the grid of each, reused between layouts. mMeshMask has bit (1 << idx) set for every
+    // region they cover; the others are drawn one by one.
+    private final int[] mMeshBlocks = new int[8];
+    private final float[][] mMeshVerts = new float[2][];
+    private int mMeshBlockCount;
+    private int mMeshMask;
+    // Nothing repeats, so a sliced PatchSet can be drawn by the platform's NinePatch renderer
+    private boolean mStretchOnly;
+    private final Rect mDrawnBounds = new Rect();
+    // The canvas clip for the current draw, and the part of a region inside it
+    private final Rect mClip = new Rect();
+    private final Rect mVisible = new Rect();
+
     private final Matrix mMatrix = new Matrix();
+    // Shaders for each mipmap level a patch has been drawn at, indexed by level - 1, and the
+    // mipmaps they repeat; kept across layouts, which only move them
+    private final BitmapShader[][] mMipmapShaders = new BitmapShader[9][];
+    private final Bitmap[][] mMipmapBitmaps = new Bitmap[9][];
+    // How much the canvas is scaled on top of the View's own scale, see setDrawScale()
+    private float mDrawScale = 1;
     private final Paint mCornerPaint = new Paint();
     private final Paint mPatchPaint = new Paint();
+    private final Paint mFillPaint = new Paint();
+
+    // Counted for RPatchMetrics
+    private int mDrawCalls;
 
     public RPatch(Bitmap b) {
-        parseBitmap(b);
+        this(b, 0);
+    }
+
+    public RPatch(Bitmap b, int loadFlags) {
+        this(PatchSet.parseBitmap(b, loadFlags));
     }
 
     public RPatch(Context c, int resId) {
-        this(BitmapFactory.decodeResource(c.getResources(), resId, LOAD_OPTIONS));
+        this(c, resId, 0);
+    }
+
+    public RPatch(Context c, int resId, int loadFlags) {
+        this(new RPatchState(RPatchCache.acquire(c, resId, null, loadFlags)), true);
+    }
+
+    /**
+     * For resources preprocessed by rpatch-maven-plugin, which have no border to scan.
+     *
+     * @param metadata The resource's field in the generated RPatchBounds class
+     */
+    public RPatch(Context c, int resId, int[] metadata) {
+        this(c, resId, metadata, 0);
+    }
+
+    public RPatch(Context c, int resId, int[] metadata, int loadFlags) {
+        this(new RPatchState(RPatchCache.acquire(c, resId, metadata, loadFlags)), true);
+    }
+
+    /**
+     * @param patchSet The caller must hold it, e.g. through
+     *                 {@link RPatchCache#acquire(Context, int)}, until this returns
+     */
+    public RPatch(PatchSet patchSet) {
+        this(new RPatchState(patchSet), false);
+    }
+
+    /**
+     * @param acquired Whether the state's PatchSet was already acquired on this RPatch's behalf
+     */
+    private RPatch(RPatchState state, boolean acquired) {
+        mState = state;
+        mPlaceholderPaint.setColor(Color.TRANSPARENT);
+        for (int i = 0; i < 9; i++) {
+            mRegions[i] = new Rect();
+        }
+        if (state.patchSet != null) {
+            if (!acquired) {
+                state.patchSet.acquire();
+            }
+            onPatchSetLoaded();
+        }
+    }
+
+    /**
+     * Starts decoding and parsing the resource on the given executor and immediately returns an
+     * RPatch that draws nothing (or its placeholder color) until loading completes. Once loaded
+     * the RPatch invalidates itself and the listener, if any, is notified on the main thread. If
+     * loading fails the RPatch keeps its placeholder, and the failure goes to the listener or, if
+     * there is none, to the log.
+     * Call {@link #cancelLoad()} if the RPatch is no longer needed, e.g. when its View is detached.
+     */
+    public static RPatch loadAsync(Context c, int resId, Executor executor,
+                                   OnLoadedListener listener) {
+        return loadAsync(c, resId, 0, executor, listener);
+    }
+
+    public static RPatch loadAsync(Context c, final int resId, final int loadFlags,
+                                   Executor executor, final OnLoadedListener listener) {
+        final Context appContext = c.getApplicationContext();
+        final RPatch patch = new RPatch(new RPatchState((PatchSet) null), false);
+        synchronized (RPatch.class) {
+            if (sMainHandler == null) {
+                sMainHandler = new Handler(Looper.getMainLooper());
+            }
+        }
+        final LoadResult result = new LoadResult();
+        patch.mLoadResult = result;
+        patch.mLoadTask = new FutureTask<PatchSet>(new Callable<PatchSet>() {
+            @Override
+            public PatchSet call() throws Exception {
+                PatchSet patchSet = RPatchCache.acquire(appContext, resId, null, loadFlags);
+                result.offer(patchSet);
+                return patchSet;
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                final FutureTask<PatchSet> task = this;
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A cancelled load has already released its result
+                        if (task.isCancelled() || patch.mLoadTask != task) {
+                            return;
+                        }
+                        patch.mLoadTask = null;
+                        patch.mLoadResult = null;
+                        Throwable failure = null;
+                        try {
+                            task.get();
+                        } catch (InterruptedException e) {
+                            failure = e;
+                        } catch (ExecutionException e) {
+                            failure = e.getCause();
+                        }
+                        if (failure != null) {
+                            // Throwing here would crash the app from inside the Handler, so the
+                            // RPatch keeps drawing its placeholder and the failure is reported
+                            result.abandon();
+                            if (listener != null) {
+                                listener.onLoadFailed(patch, failure);
+                            } else {
+                                Log.w(TAG, "Failed to load RPatch", failure);
+                            }
+                            return;
+                        }
+                        patch.mState.patchSet = result.take();
+                        patch.onPatchSetLoaded();
+                        patch.invalidateSelf();
+                        if (listener != null) {
+                            listener.onLoaded(patch);
+                        }
+                    }
+                });
+            }
+        };
+        executor.execute(patch.mLoadTask);
+        return patch;
+    }
+
+    /**
+     * Decodes and parses many assets in parallel on the given executor, e.g. at app startup.
+     * RPatches constructed for them later with the same load flags come straight from
+     * {@link RPatchCache}. The returned handle reports when loading is done, how long it took and
+     * how many bytes the assets hold; the assets stay cached until it is released.
+     */
+    public static RPatchPreload preload(Context c, Executor executor, int... resIds) {
+        return preload(c, 0, executor, resIds);
+    }
+
+    public static RPatchPreload preload(Context c, int loadFlags, Executor executor,
+                                        int... resIds) {
+        return new RPatchPreload(c, loadFlags, executor, resIds);
+    }
+
+    /**
+     * Cancels a pending {@link #loadAsync} load. The listener will not be notified.
+     */
+    public void cancelLoad() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+            mLoadTask = null;
+            mLoadResult.abandon();
+            mLoadResult = null;
+        }
+    }
+
+    /**
+     * Lets go of this RPatch's patches, which then go to {@link RPatchBitmapPool} for reuse once no
+     * other RPatch or cache entry holds them. Call this when an RPatch is being replaced and won't
+     * be drawn again, e.g. after setting a new background; it draws nothing afterwards.
+     */
+    public void release() {
+        cancelLoad();
+        mRenderCache.release();
+        if (patches == null) {
+            return;
+        }
+        // mState is left alone: it may be shared with band copies or handed out through
+        // getConstantState(), and drawables created from it must still draw
+        PatchSet patchSet = mState.patchSet;
+        patches = null;
+        source = null;
+        mMeshBlockCount = 0;
+        mMeshMask = 0;
+        for (int i = 0; i < 9; i++) {
+            mShaders[i] = null;
+            mShaderBitmaps[i] = null;
+            mMipmapShaders[i] = null;
+            mMipmapBitmaps[i] = null;
+        }
+        mPatchPaint.setShader(null);
+        patchSet.release();
     }
 
+    public boolean isLoaded() {
+        return patches != null;
+    }
+
+    /**
+     * Sets the color drawn over the bounds while an asynchronous load is pending. Transparent by
+     * default.
+     */
+    public void setPlaceholderColor(int color) {
+        mPlaceholderPaint.setColor(color);
+    }
+
+    private void onPatchSetLoaded() {
+        PatchSet patchSet = mState.patchSet;
+        patches = patchSet.patches;
+        source = patchSet.source;
+        sourceRects = patchSet.sourceRects;
+        regionDecoded = patchSet.isRegionDecoded();
+        paintColors = patchSet.paintColors;
+        solidColors = patchSet.solidColors;
+        leftWidth = patchSet.leftWidth;
+        midWidth = patchSet.midWidth;
+        rightWidth = patchSet.rightWidth;
+        topHeight = patchSet.topHeight;
+        midHeight = patchSet.midHeight;
+        botHeight = patchSet.botHeight;
+        mLayout = new RPatchLayout(leftWidth, midWidth, rightWidth,
+                topHeight, midHeight, botHeight);
+
+        for (int i = 0; i < 9; i++) {
+            // Empty and invisible patches aren't drawn, and solid ones are filled in
+            if (sourceRects[i].isEmpty()
+                    || patchSet.opacities[i] == PixelFormat.TRANSPARENT) {
+                mDrawModes[i] = DRAW_SKIP;
+            } else if (solidColors[i] != 0) {
+                mDrawModes[i] = DRAW_FILL;
+            } else {
+                mDrawModes[i] = 0;
+            }
+            mShaders[i] = null;
+            mShaderBitmaps[i] = null;
+            mMipmapShaders[i] = null;
+            mMipmapBitmaps[i] = null;
+            if (!RPatchLayout.isCorner(i) && source == null && !regionDecoded
+                    && mDrawModes[i] == 0) {
+                mShaders[i] = new BitmapShader(patches[i], Shader.TileMode.REPEAT,
+                        Shader.TileMode.REPEAT);
+                mShaderBitmaps[i] = patches[i];
+            }
+        }
+        updateLayout();
+    }
+
+    /**
+     * @return The patch at the given index, decoding or slicing it first if this RPatch was loaded
+     * with LOAD_REGION_DECODE or LOAD_ZERO_COPY, or null if it is empty
+     */
     public Bitmap dbgGetPatch(int idx) {
-        return patches[idx];
+        if (patches == null) {
+            return null;
+        }
+        return mState.patchSet.getPatch(idx);
     }
 
     public void setRepeatFlags(int flags) {
-        repeatFlags = flags;
+        mState.repeatFlags = flags;
+        updateLayout();
     }
 
     public void setDrawCentered(boolean drawCentered) {
-        this.drawCentered = drawCentered;
+        mState.drawCentered = drawCentered;
+        updateLayout();
     }
 
-    // TODO: repeatable patch inset from indicated by one on v and h
-    // TODO: density considerations?
-    private void parseBitmap(Bitmap srcBitmap) {
-        int vTop = -1, vBottom = -1, hLeft = -1, hRight = -1;
-        int width = srcBitmap.getWidth();
-        int height = srcBitmap.getHeight();
-        int px;
+    /**
+     * Tells the RPatch how much it is scaled down when drawn, beyond the scale of its View, e.g.
+     * by {@link Canvas#scale(float, float)} in a zoomed-out preview, so that patches drawn at half
+     * their size or less can come from mipmaps. The scale of the View it is drawn in and of that
+     * View's parents, as set by scale animations, is picked up on its own on API 11 and up.
+     * 1 by default. The render cache is always drawn at full size and ignores this.
+     */
+    public void setDrawScale(float scale) {
+        mDrawScale = scale;
+    }
 
-        int[] pixelChunk = new int[width];
-        srcBitmap.getPixels(pixelChunk, 0, width, 0, 0, width, 1);
+    /**
+     * Opt-in for RPatches that are drawn often but rarely change, like list item backgrounds. The
+     * RPatch is rendered once into a bitmap the size of its bounds, which is then drawn until the
+     * bounds, repeat flags or centering change. See {@link #setRenderCacheMaxBytes(long)}.
+     */
+    public void setRenderCacheEnabled(boolean enabled) {
+        mState.renderCacheEnabled = enabled;
+        if (!enabled) {
+            mRenderCache.release();
+        }
+    }
 
-        for (int i = 0; i < width; i++) {
-            px = pixelChunk[i];
-            if ((px & 0xFF000000) != 0) {
-                hLeft = i;
-                break;
-            }
+    /**
+     * Caps the bytes used by the render caches of all RPatches. RPatches that would exceed the cap
+     * draw uncached. Defaults to 4MB.
+     */
+    public static void setRenderCacheMaxBytes(long maxBytes) {
+        RenderCache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * @return Bytes currently held by render caches
+     */
+    public static long getRenderCacheSize() {
+        return RenderCache.getSize();
+    }
+
+    /**
+     * Installs a listener for parse, memory and draw measurements of all RPatches, or removes it
+     * when null. Parses are always reported; draws are timed once every {@code drawSampleInterval}
+     * draws. Without metrics or tracing installed, RPatch does no measuring at all.
+     */
+    public static void setMetrics(RPatchMetrics metrics, int drawSampleInterval) {
+        Instrumentation.setMetrics(metrics, drawSampleInterval);
+    }
+
+    /**
+     * Wraps parsing and drawing in {@code android.os.Trace} sections ("RPatch.parse" and
+     * "RPatch.draw") so they show up in systrace and Perfetto captures. Only available on API 18+;
+     * does nothing on older platforms.
+     */
+    public static void setTracingEnabled(boolean enabled) {
+        Instrumentation.setTracingEnabled(enabled);
+    }
+
+    /**
+     * Renders this RPatch over all of a mutable target bitmap, for exports and thumbnails at sizes
+     * where a single draw is too slow. The target is split into horizontal bands that are drawn
+     * concurrently on the given executor, each by its own copy of this RPatch (with its own
+     * Canvas, shaders and Paints) clipped to the band, so the result is the same as drawing it
+     * in one go. Blocks until every band is done. This RPatch's own bounds are left alone.
+     *
+     * @throws IllegalStateException If this RPatch is still loading
+     */
+    public void renderBanded(final Bitmap target, Executor executor, int bands)
+            throws InterruptedException {
+        if (patches == null) {
+            throw new IllegalStateException("RPatch isn't loaded yet");
         }
+        final int width = target.getWidth();
+        final int height = target.getHeight();
+        // Copied here since this RPatch's settings may change while the bands are drawn
+        final RPatchState state = new RPatchState(mState);
+        state.renderCacheEnabled = false;
+        bands = Math.max(1, Math.min(bands, height));
+        int bandHeight = (height + bands - 1) / bands;
 
-        for (int i = width - 1; i != 0; i--) {
-            px = pixelChunk[i];
-            if ((px & 0xFF000000) != 0) {
-                hRight = i;
-                break;
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(bands);
+        for (int top = 0; top < height; top += bandHeight) {
+            final int bandTop = top;
+            final int bandBottom = Math.min(top + bandHeight, height);
+            FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    RPatch band = new RPatch(new RPatchState(state), false);
+                    try {
+                        band.setBounds(0, 0, width, height);
+                        Canvas canvas = new Canvas(target);
+                        canvas.clipRect(0, bandTop, width, bandBottom);
+                        band.drawPatches(canvas, 1);
+                    } finally {
+                        band.release();
+                    }
+                    return null;
+                }
+            });
+            tasks.add(task);
+            executor.execute(task);
+        }
+        for (FutureTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to render RPatch", e.getCause());
             }
         }
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        updateLayout();
+    }
+
+    // Lays out the patch regions for the current bounds and flags and positions the shaders, so
+    // that draw() itself doesn't allocate or do any math
+    private void updateLayout() {
+        if (patches == null) {
+            return;
+        }
+        mRenderCache.invalidate();
+
+        Rect bounds = getBounds();
+        mLayout.layout(bounds.left, bounds.top, bounds.right, bounds.bottom,
+                mState.repeatFlags, mState.drawCentered);
+
+        int[] regions = mLayout.regions;
+        float[] transforms = mLayout.transforms;
+        // Discrete mode may leave a margin inside the bounds uncovered
+        boolean covers = regions[0] == bounds.left && regions[1] == bounds.top
+                && regions[34] == bounds.right && regions[35] == bounds.bottom;
+        mOpacity = mState.patchSet.getOpacity() == PixelFormat.OPAQUE && !covers
+                ? PixelFormat.TRANSLUCENT : mState.patchSet.getOpacity();
 
-        pixelChunk = new int[height];
-        srcBitmap.getPixels(pixelChunk, 0, 1, 0, 0, 1, height);
+        mDrawnBounds.set(regions[0], regions[1], regions[34], regions[35]);
+        mStretchOnly = (mState.repeatFlags & (REPEAT_INNER_BOTH | REPEAT_OUTER_ALL)) == 0;
+        updateMesh();
 
-        for (int i = 0; i < height; i++) {
-            px = pixelChunk[i];
-            if ((px & 0xFF000000) != 0) {
-                vTop = i;
-                break;
+        for (int i = 0; i < 9; i++) {
+            int r = i * 4;
+            mRegions[i].set(regions[r], regions[r + 1], regions[r + 2], regions[r + 3]);
+            BitmapShader[] mipmapShaders = mMipmapShaders[i];
+            for (int level = 1; mipmapShaders != null && level <= MIPMAP_MAX_LEVEL; level++) {
+                if (mipmapShaders[level - 1] != null) {
+                    setMipmapMatrix(i, level);
+                }
+            }
+            if (mShaders[i] != null) {
+                // The tile is anchored where the patch would be, and scale is 1 along the axes
+                // it is tiled on, so the same matrix applies
+                Bitmap tile = mState.patchSet.getTile(i, mLayout.repeatsX(i),
+                        mLayout.repeatsY(i));
+                if (tile != mShaderBitmaps[i]) {
+                    mShaders[i] = new BitmapShader(tile, Shader.TileMode.REPEAT,
+                            Shader.TileMode.REPEAT);
+                    mShaderBitmaps[i] = tile;
+                }
+                mMatrix.setScale(transforms[r], transforms[r + 1]);
+                mMatrix.postTranslate(transforms[r + 2], transforms[r + 3]);
+                mShaders[i].setLocalMatrix(mMatrix);
             }
         }
+    }
 
-        for (int i = height - 1; i != 0; i--) {
-            px = pixelChunk[i];
-            if ((px & 0xFF000000) != 0) {
-                vBottom = i;
-                break;
+    private void updateMesh() {
+        mMeshBlockCount = 0;
+        mMeshMask = 0;
+        // Only LOAD_ZERO_COPY keeps a bitmap holding every patch. Meshing sliced patches would
+        // take a copy of them all, resampled to a common grid.
+        if (source == null) {
+            return;
+        }
+        int inset = sourceRects[IDX_TOP_LEFT].left;
+        int[] blocks = mMeshBlocks;
+        int count = mLayout.meshBlocks(blocks);
+        int mask = 0;
+        for (int b = 0; b < count; b++) {
+            int r = b * 4;
+            float[] verts = mLayout.mesh(inset, blocks[r], blocks[r + 1], blocks[r + 2],
+                    blocks[r + 3], mMeshVerts[b], MESH_MAX_VERTICES);
+            if (verts == null) {
+                return;
+            }
+            mMeshVerts[b] = verts;
+            for (int row = blocks[r + 1]; row <= blocks[r + 3]; row++) {
+                for (int col = blocks[r]; col <= blocks[r + 2]; col++) {
+                    mask |= 1 << (row * 3 + col);
+                }
             }
         }
+        mMeshBlockCount = count;
+        mMeshMask = mask;
+    }
 
-        leftWidth = hLeft - 1;
-        midWidth = hRight - leftWidth;
-        rightWidth = width - midWidth - leftWidth - 2;
-        topHeight = vTop - 1;
-        midHeight = vBottom - topHeight;
-        botHeight = height - midHeight - topHeight - 2;
-
-        patches[IDX_TOP_LEFT] = Bitmap.createBitmap(srcBitmap, 1, 1, leftWidth, topHeight);
-        patches[IDX_TOP_MID] = Bitmap.createBitmap(srcBitmap, hLeft, 1, midWidth, topHeight);
-        patches[IDX_TOP_RIGHT] = Bitmap.createBitmap(srcBitmap, hRight + 1, 1, rightWidth, topHeight);
-        patches[IDX_MID_LEFT] = Bitmap.createBitmap(srcBitmap, 1, vTop, leftWidth, midHeight);
-        patches[IDX_MID] = Bitmap.createBitmap(srcBitmap, hLeft, vTop, midWidth, midHeight);
-        patches[IDX_MID_RIGHT] = Bitmap
-                .createBitmap(srcBitmap, hRight + 1, vTop, rightWidth, midHeight);
-        patches[IDX_BOT_LEFT] = Bitmap
-                .createBitmap(srcBitmap, 1, vBottom + 1, leftWidth, botHeight);
-        patches[IDX_BOT_MID] = Bitmap
-                .createBitmap(srcBitmap, hLeft, vBottom + 1, midWidth, botHeight);
-        patches[IDX_BOT_RIGHT] = Bitmap
-                .createBitmap(srcBitmap, hRight + 1, vBottom + 1, rightWidth, botHeight);
-    }
-
-    // TODO: Edge patches drawn on cutoffs are inset by one (bottom only?)
     @Override
     public void draw(Canvas canvas) {
+        if (!Instrumentation.sEnabled) {
+            drawContent(canvas);
+            return;
+        }
+        mDrawCalls = 0;
+        long start = Instrumentation.beginDraw();
+        try {
+            drawContent(canvas);
+        } finally {
+            Instrumentation.endDraw(start, patches == null ? 0 : mState.patchSet.resId,
+                    mDrawCalls);
+        }
+    }
+
+    private void drawContent(Canvas canvas) {
+        if (patches == null) {
+            if (mPlaceholderPaint.getAlpha() != 0) {
+                canvas.drawRect(getBounds(), mPlaceholderPaint);
+                mDrawCalls++;
+            }
+            return;
+        }
+        if (mState.renderCacheEnabled) {
+            if (!mRenderCache.isValid()) {
+                Rect bounds = getBounds();
+                Canvas cacheCanvas = mRenderCache.begin(bounds.width(), bounds.height());
+                if (cacheCanvas != null) {
+                    cacheCanvas.save();
+                    cacheCanvas.translate(-bounds.left, -bounds.top);
+                    // At full size, since the cache outlives the scale it is first drawn at, e.g.
+                    // midway through a scale-down animation, and is scaled along with the View
+                    drawPatches(cacheCanvas, 1);
+                    cacheCanvas.restore();
+                }
+            }
+            if (mRenderCache.isValid()) {
+                if (canvas.getClipBounds(mClip) && Rect.intersects(mClip, getBounds())) {
+                    canvas.drawBitmap(mRenderCache.getBitmap(), getBounds().left,
+                            getBounds().top, mCornerPaint);
+                    mDrawCalls++;
+                }
+                return;
+            }
+        }
+        // Only sliced patches have mipmaps, so only they need the View hierarchy walked
+        drawPatches(canvas, source == null && !regionDecoded ? getDrawScale() : 1);
+    }
 
-        Rect bounds = new Rect(getBounds());
+    /**
+     * @param drawScale How much the canvas is scaled down on screen, which picks the mipmaps
+     *                  repeating patches are drawn from
+     */
+    private void drawPatches(Canvas canvas, float drawScale) {
+        // Often only a slice of a large background is being redrawn, e.g. while scrolling.
+        // Regions outside the clip are skipped and the rest are limited to their visible part.
+        if (!canvas.getClipBounds(mClip) || !Rect.intersects(mClip, mDrawnBounds)) {
+            return;
+        }
+        int meshed = 0;
+        if (source != null) {
+            meshed = drawMesh(canvas);
+            if (meshed == ALL_REGIONS) {
+                return;
+            }
+        } else if (mStretchOnly && !regionDecoded) {
+            // Not held on to, so the PatchSet can drop it under memory pressure
+            NinePatch ninePatch = mState.patchSet.getNinePatch();
+            if (ninePatch != null) {
+                ninePatch.draw(canvas, mDrawnBounds, mCornerPaint);
+                mDrawCalls++;
+                return;
+            }
+        }
+        RegionDrawer drawer = mRegionDrawer;
+        drawer.canvas = canvas;
+        drawer.skipMask = meshed;
+        drawer.drawScale = drawScale;
+        mLayout.draw(drawer);
+        drawer.canvas = null;
+    }
 
-        // If it's not cutoff mode, we have to modify the bounds
-        if ((repeatFlags & REPEAT_MODE_CUTOFF) == 0) {
+    /**
+     * Draws the regions that stretch rather than repeat straight from the zero-copy source, with
+     * one drawBitmapMesh call per block.
+     *
+     * @return A bit (1 << idx) for every region drawn
+     */
+    private int drawMesh(Canvas canvas) {
+        if (mMeshBlockCount == 0 || (Build.VERSION.SDK_INT < API_HARDWARE_MESH
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && canvas.isHardwareAccelerated())) {
+            return 0;
+        }
+        for (int b = 0; b < mMeshBlockCount; b++) {
+            canvas.drawBitmapMesh(source, mLayout.meshColumns, mLayout.meshRows,
+                    mMeshVerts[b], 0, null, 0, mCornerPaint);
+            mDrawCalls++;
+        }
+        return mMeshMask;
+    }
 
-            int maxMidWidth = bounds.width() - leftWidth - rightWidth;
-            int maxMidHeight = bounds.height() - topHeight - botHeight;
-            int numXReps = maxMidWidth / midWidth;
-            int numYReps = maxMidHeight / midHeight;
+    // How much the patches' transforms are scaled by on screen: the hint given to
+    // setDrawScale(), times the scale of the View this is drawn in and its ancestors. The canvas
+    // matrix can't be used, since hardware-accelerated canvases don't include View scale in it.
+    private float getDrawScale() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return mDrawScale;
+        }
+        return mDrawScale * ViewScale.of(this);
+    }
 
-            if (drawCentered) {
-                // Diffs are inset into original bounds to center
-                int xDiff = maxMidWidth - numXReps * midWidth;
-                bounds.left += (xDiff / 2);
-                bounds.right -= (xDiff / 2);
-                int yDiff = maxMidHeight - numYReps * midHeight;
-                bounds.top += (yDiff / 2);
-                bounds.bottom -= (yDiff / 2);
-            } else {
-                bounds.right = leftWidth + rightWidth + numXReps * midWidth;
-                bounds.bottom = topHeight + botHeight + numYReps * midHeight;
-            }
+    // A patch drawn at half its size or less samples a mipmap instead, from a shader scaled up by
+    // exactly as much as the mipmap was scaled down, so the tiles repeat with the same period
+    private BitmapShader getShader(int idx, float drawScale) {
+        int r = idx * 4;
+        float[] transforms = mLayout.transforms;
+        float scale = drawScale * Math.max(transforms[r], transforms[r + 1]);
+        int level = 0;
+        while (scale <= 0.5f && level < MIPMAP_MAX_LEVEL) {
+            scale *= 2;
+            level++;
         }
+        if (level == 0) {
+            return mShaders[idx];
+        }
+        if (mMipmapShaders[idx] == null) {
+            mMipmapShaders[idx] = new BitmapShader[MIPMAP_MAX_LEVEL];
+            mMipmapBitmaps[idx] = new Bitmap[MIPMAP_MAX_LEVEL];
+        }
+        if (mMipmapShaders[idx][level - 1] == null) {
+            Bitmap mipmap = mState.patchSet.getMipmap(idx, level);
+            mMipmapShaders[idx][level - 1] = new BitmapShader(mipmap, Shader.TileMode.REPEAT,
+                    Shader.TileMode.REPEAT);
+            mMipmapBitmaps[idx][level - 1] = mipmap;
+            setMipmapMatrix(idx, level);
+        }
+        return mMipmapShaders[idx][level - 1];
+    }
 
-        // Helper Rects
-        Rect topLeft = new Rect(bounds.left,
-                bounds.top,
-                bounds.left + leftWidth,
-                bounds.top + topHeight);
-        Rect topRight = new Rect(bounds.right - rightWidth,
-                bounds.top,
-                bounds.right,
-                bounds.top + topHeight);
-        Rect botLeft = new Rect(bounds.left,
-                bounds.bottom - botHeight,
-                bounds.left + leftWidth,
-                bounds.bottom);
-        Rect botRight = new Rect(bounds.right - rightWidth,
-                bounds.bottom - botHeight,
-                bounds.right,
-                bounds.bottom);
-        Rect middle = new Rect(topLeft.right,
-                topLeft.bottom,
-                topRight.left,
-                botLeft.top);
-
-        BitmapShader shader;
-        mMatrix.reset();
-
-        canvas.drawBitmap(patches[IDX_TOP_LEFT], bounds.left, bounds.top, mCornerPaint);
-
-        mMatrix.postTranslate(topLeft.right, topLeft.top);
-        if ((repeatFlags & REPEAT_OUTER_TOP) == 0) {
-            mMatrix.preScale(
-                    (topRight.left - topLeft.right) / (float) patches[IDX_TOP_MID].getWidth(),
-                    1.0f);
-        }
-        shader = new BitmapShader(patches[IDX_TOP_MID], Shader.TileMode.REPEAT,
-                Shader.TileMode.REPEAT);
-        shader.setLocalMatrix(mMatrix);
-        mPatchPaint.setShader(shader);
-        canvas.drawRect(topLeft.right, topLeft.top, topRight.left, topRight.bottom, mPatchPaint);
+    private void setMipmapMatrix(int idx, int level) {
+        int r = idx * 4;
+        float[] transforms = mLayout.transforms;
+        Bitmap patch = patches[idx];
+        Bitmap mipmap = mMipmapBitmaps[idx][level - 1];
+        mMatrix.setScale(transforms[r] * patch.getWidth() / mipmap.getWidth(),
+                transforms[r + 1] * patch.getHeight() / mipmap.getHeight());
+        mMatrix.postTranslate(transforms[r + 2], transforms[r + 3]);
+        mMipmapShaders[idx][level - 1].setLocalMatrix(mMatrix);
+    }
+
+    /**
+     * Skips or fills the patch if it is empty, invisible or a single color. Expects mVisible to
+     * hold the visible part of its region.
+     *
+     * @return Whether the patch was handled
+     */
+    private boolean drawSimple(Canvas canvas, int idx) {
+        switch (mDrawModes[idx]) {
+            case DRAW_SKIP:
+                return true;
+            case DRAW_FILL:
+                mFillPaint.setColor(solidColors[idx]);
+                canvas.drawRect(mVisible, mFillPaint);
+                mDrawCalls++;
+                return true;
+            default:
+                return false;
+        }
+    }
 
-        canvas.drawBitmap(patches[IDX_TOP_RIGHT], topRight.left, bounds.top, mCornerPaint);
+    // Draws the regions RPatchLayout.draw() hands it from whichever bitmaps this RPatch has: its
+    // own sliced patches, the PatchSet's region-decoded ones, or the zero-copy source
+    private final class RegionDrawer implements RPatchCanvas {
+        Canvas canvas;
+        // Bit (1 << idx) for regions the mesh has drawn already
+        int skipMask;
+        float drawScale;
 
-        mMatrix.reset();
-        mMatrix.postTranslate(bounds.left, topLeft.bottom);
-        if ((repeatFlags & REPEAT_OUTER_LEFT) == 0) {
-            mMatrix.preScale(1.0f,
-                    (botLeft.top - topRight.bottom) / (float) patches[IDX_MID_LEFT].getHeight());
+        // Sets mVisible to the visible part of the region, which is skipped if there is none or
+        // drawSimple() took care of it
+        private boolean skip(int idx, int left, int top, int right, int bottom) {
+            if ((skipMask & (1 << idx)) != 0) {
+                return true;
+            }
+            mVisible.set(left, top, right, bottom);
+            return !mVisible.intersect(mClip) || drawSimple(canvas, idx);
         }
-        shader = new BitmapShader(patches[IDX_MID_LEFT], Shader.TileMode.REPEAT,
-                Shader.TileMode.REPEAT);
-        shader.setLocalMatrix(mMatrix);
-        mPatchPaint.setShader(shader);
-        canvas.drawRect(bounds.left, topLeft.bottom, topLeft.right, botLeft.top, mPatchPaint);
-
-        mMatrix.reset();
-        mMatrix.postTranslate(middle.left, middle.top);
-        switch (repeatFlags & REPEAT_INNER_BOTH) {
-            case REPEAT_INNER_NONE:
-                mMatrix.preScale(middle.width() / (float) patches[IDX_MID].getWidth(),
-                        middle.height() / (float) patches[IDX_MID].getHeight());
-                break;
-            case REPEAT_INNER_Y:
-                mMatrix.preScale(middle.width() / (float) patches[IDX_MID].getWidth(), 1.0f);
-                break;
-            case REPEAT_INNER_X:
-                mMatrix.preScale(1.0f, middle.height() / (float) patches[IDX_MID].getHeight());
-                break;
-        }
-        shader = new BitmapShader(patches[IDX_MID], Shader.TileMode.REPEAT,
-                Shader.TileMode.REPEAT);
-        shader.setLocalMatrix(mMatrix);
-        mPatchPaint.setShader(shader);
-        canvas.drawRect(middle, mPatchPaint);
 
-        mMatrix.reset();
-        mMatrix.postTranslate(topRight.left, topRight.bottom);
-        if ((repeatFlags & REPEAT_OUTER_RIGHT) == 0) {
-            mMatrix.preScale(1.0f,
-                    (botRight.top - topRight.bottom) / (float) patches[IDX_MID_RIGHT].getHeight());
+        @Override
+        public void drawCorner(int idx, int left, int top, int right, int bottom) {
+            if (skip(idx, left, top, right, bottom)) {
+                return;
+            }
+            if (source != null) {
+                canvas.drawBitmap(source, sourceRects[idx], mRegions[idx], mCornerPaint);
+            } else if (regionDecoded) {
+                // A patch that failed to decode is left out rather than failing the whole draw
+                Bitmap patch = mState.patchSet.getPatch(idx);
+                if (patch == null) {
+                    return;
+                }
+                canvas.drawBitmap(patch, left, top, mCornerPaint);
+            } else {
+                mCornerPaint.setColor(paintColors[idx]);
+                canvas.drawBitmap(patches[idx], left, top, mCornerPaint);
+            }
+            mDrawCalls++;
         }
-        shader = new BitmapShader(patches[IDX_MID_RIGHT], Shader.TileMode.REPEAT,
-                Shader.TileMode.REPEAT);
-        shader.setLocalMatrix(mMatrix);
-        mPatchPaint.setShader(shader);
-        canvas.drawRect(topRight.left, topRight.bottom, bounds.right, botRight.top, mPatchPaint);
 
-        canvas.drawBitmap(patches[IDX_BOT_LEFT], bounds.left, botRight.top, mCornerPaint);
+        @Override
+        public void fillRegion(int idx, int left, int top, int right, int bottom,
+                               float scaleX, float scaleY, float originX, float originY) {
+            if (skip(idx, left, top, right, bottom)) {
+                return;
+            }
+            if (source != null) {
+                fillFromSource(canvas, idx, scaleX, scaleY, originX, originY);
+            } else if (regionDecoded) {
+                fillSharedShader(canvas, idx, scaleX, scaleY, originX, originY);
+            } else {
+                // The shader is anchored to the region, so drawing part of it lines up
+                mPatchPaint.setColor(paintColors[idx]);
+                mPatchPaint.setShader(getShader(idx, drawScale));
+                canvas.drawRect(mVisible, mPatchPaint);
+                mDrawCalls++;
+            }
+        }
+    }
 
-        mMatrix.reset();
-        mMatrix.postTranslate(botLeft.right, botLeft.top);
-        if ((repeatFlags & REPEAT_OUTER_BOTTOM) == 0) {
-            mMatrix.preScale(
-                    (botRight.left - botLeft.right) / (float) patches[IDX_BOT_MID].getWidth(),
-                    1.0f);
+    // Fills mVisible with the PatchSet's shader for the patch. LOAD_REGION_DECODE patches come
+    // from there, decoded on first use and dropped under memory pressure, and holding no
+    // references to them here is what lets them be freed. The shader's local matrix is shared
+    // with every other RPatch, so it is positioned through the canvas matrix instead.
+    private void fillSharedShader(Canvas canvas, int idx, float scaleX, float scaleY,
+                                  float originX, float originY) {
+        BitmapShader shader = mState.patchSet.getShader(idx);
+        if (shader == null) {
+            return;
         }
-        shader = new BitmapShader(patches[IDX_BOT_MID], Shader.TileMode.REPEAT,
-                Shader.TileMode.REPEAT);
-        shader.setLocalMatrix(mMatrix);
+        canvas.save();
+        canvas.translate(originX, originY);
+        canvas.scale(scaleX, scaleY);
         mPatchPaint.setShader(shader);
-        canvas.drawRect(botLeft.right, botLeft.top, botRight.left, botLeft.bottom, mPatchPaint);
-
-        canvas.drawBitmap(patches[IDX_BOT_RIGHT], botRight.left, botRight.top, mCornerPaint);
+        canvas.drawRect((mVisible.left - originX) / scaleX, (mVisible.top - originY) / scaleY,
+                (mVisible.right - originX) / scaleX, (mVisible.bottom - originY) / scaleY,
+                mPatchPaint);
+        mPatchPaint.setShader(null);
+        mDrawCalls++;
+        canvas.restore();
+    }
 
+    // LOAD_ZERO_COPY: regions not already drawn by the mesh are drawn straight out of the source
+    // bitmap, one drawBitmap per tile. Densely repeating regions would take thousands of those,
+    // so past SOURCE_MAX_TILES the PatchSet slices that one patch out for a shader.
+    private void fillFromSource(Canvas canvas, int idx, float scaleX, float scaleY,
+                                float originX, float originY) {
+        Rect src = sourceRects[idx];
+        // A tile as placed by the layout, which along a stretched axis covers the region
+        float tileW = src.width() * scaleX;
+        float tileH = src.height() * scaleY;
+        // Only the tiles overlapping the clip
+        int firstX = (int) Math.floor((mVisible.left - originX) / tileW);
+        int firstY = (int) Math.floor((mVisible.top - originY) / tileH);
+        int lastX = (int) Math.ceil((mVisible.right - originX) / tileW);
+        int lastY = (int) Math.ceil((mVisible.bottom - originY) / tileH);
+        if ((long) (lastX - firstX) * (lastY - firstY) > SOURCE_MAX_TILES) {
+            fillSharedShader(canvas, idx, scaleX, scaleY, originX, originY);
+            return;
+        }
+        // Partial tiles at the edges are cut off by the clip rather than squeezed
+        canvas.save();
+        canvas.clipRect(mVisible);
+        for (int y = firstY; y < lastY; y++) {
+            for (int x = firstX; x < lastX; x++) {
+                mTileDst.set(originX + x * tileW, originY + y * tileH,
+                        originX + (x + 1) * tileW, originY + (y + 1) * tileH);
+                canvas.drawBitmap(source, src, mTileDst, mPatchPaint);
+                mDrawCalls++;
+            }
+        }
+        canvas.restore();
     }
 
     @Override
     public int getMinimumWidth() {
-        return patches[IDX_TOP_LEFT].getWidth() + patches[IDX_TOP_MID].getHeight() +
-                patches[IDX_TOP_RIGHT].getHeight();
+        return leftWidth + midWidth + rightWidth;
     }
 
     @Override
     public int getMinimumHeight() {
-        return patches[IDX_TOP_LEFT].getHeight() + patches[IDX_MID_LEFT].getHeight() +
-                patches[IDX_BOT_LEFT].getHeight();
+        return topHeight + midHeight + botHeight;
     }
 
     @Override
@@ -322,6 +916,143 @@ public class RPatch extends Drawable {
 
     @Override
     public int getOpacity() {
-        return PixelFormat.OPAQUE;
+        if (patches == null) {
+            switch (mPlaceholderPaint.getAlpha()) {
+                case 0:
+                    return PixelFormat.TRANSPARENT;
+                case 0xFF:
+                    return PixelFormat.OPAQUE;
+                default:
+                    return PixelFormat.TRANSLUCENT;
+            }
+        }
+        return mOpacity;
+    }
+
+    @Override
+    public int getChangingConfigurations() {
+        return super.getChangingConfigurations() | mState.changingConfigurations;
+    }
+
+    @Override
+    public ConstantState getConstantState() {
+        if (patches == null) {
+            // Nothing to share until an asynchronous load completes
+            return null;
+        }
+        mState.changingConfigurations = getChangingConfigurations();
+        // The state itself holds nothing: each drawable created from it takes its own hold on the
+        // PatchSet, so they can be created while something, e.g. this RPatch, still holds it
+        return mState;
+    }
+
+    @Override
+    public Drawable mutate() {
+        if (!mMutated && super.mutate() == this) {
+            mState = new RPatchState(mState);
+            mMutated = true;
+        }
+        return this;
+    }
+
+    // Only loaded on API 11+
+    private static class ViewScale {
+
+        // The larger of the X and Y scales of the View the drawable is drawn in, multiplied up
+        // through its parents. Drawables wrapped in others, e.g. a LayerDrawable, are followed to
+        // the View holding the outermost one.
+        static float of(Drawable drawable) {
+            Object callback = drawable.getCallback();
+            while (callback instanceof Drawable) {
+                callback = ((Drawable) callback).getCallback();
+            }
+            float scale = 1;
+            while (callback instanceof View) {
+                View view = (View) callback;
+                scale *= Math.max(Math.abs(view.getScaleX()), Math.abs(view.getScaleY()));
+                callback = view.getParent();
+            }
+            return scale;
+        }
+    }
+
+    /**
+     * Hands the PatchSet acquired by a {@link #loadAsync} task over to its RPatch. If the load is
+     * cancelled first, whether the task is still running or its result is already on its way to
+     * the main thread, the hold taken on the RPatch's behalf is released instead.
+     */
+    private static final class LoadResult {
+        private PatchSet patchSet;
+        private boolean abandoned;
+
+        synchronized void offer(PatchSet loaded) {
+            if (abandoned) {
+                loaded.release();
+            } else {
+                patchSet = loaded;
+            }
+        }
+
+        synchronized PatchSet take() {
+            PatchSet loaded = patchSet;
+            patchSet = null;
+            return loaded;
+        }
+
+        synchronized void abandon() {
+            abandoned = true;
+            if (patchSet != null) {
+                patchSet.release();
+                patchSet = null;
+            }
+        }
+    }
+
+    public interface OnLoadedListener {
+        void onLoaded(RPatch patch);
+
+        /**
+         * Called instead of {@link #onLoaded(RPatch)} if the asset couldn't be loaded, e.g. because
+         * it has no border markers. The RPatch keeps drawing its placeholder.
+         */
+        void onLoadFailed(RPatch patch, Throwable error);
+    }
+
+    /**
+     * Per-instance settings plus the shared, immutable {@link PatchSet}. Copying the state only
+     * copies the settings, so new drawables get their own repeat flags and centering.
+     */
+    static final class RPatchState extends ConstantState {
+        // Only assigned later for asynchronously loaded RPatches
+        PatchSet patchSet;
+
+        // 0 implies REPEAT_MODE_DISCRETE, REPEAT_INNER_BOTH, REPEAT_OUTER_NONE
+        int repeatFlags = 0;
+        boolean drawCentered;
+        boolean renderCacheEnabled;
+        int changingConfigurations;
+
+        RPatchState(PatchSet patchSet) {
+            this.patchSet = patchSet;
+        }
+
+        RPatchState(RPatchState orig) {
+            patchSet = orig.patchSet;
+            repeatFlags = orig.repeatFlags;
+            drawCentered = orig.drawCentered;
+            renderCacheEnabled = orig.renderCacheEnabled;
+            changingConfigurations = orig.changingConfigurations;
+        }
+
+        // The new RPatch owns the hold it takes here and returns it in release()
+        @Override
+        public Drawable newDrawable() {
+            return new RPatch(new RPatchState(this), false);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return changingConfigurations;
+        }
     }
 }
@@ -0,0 +1,170 @@
+package com.github.jonathannye.rpatch;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+
+/**
+ * Draws many instances of one asset, each with its own bounds and repeat flags, in a single pass.
+ * Instead of drawing each instance's nine patches in turn, every instance is laid out first and
+ * then each patch is drawn for all instances at once, so its bitmap and shader are bound once per
+ * pass. Instances should not overlap, since patches are drawn in patch order rather than instance
+ * order. Meant for dense grids of cells sharing an asset, like board tiles.
+ *
+ * Batches hold their {@link PatchSet} until {@link #release()}; like RPatches, they are meant to be
+ * used from the main thread.
+ */
+public final class RPatchBatch {
+
+    private final PatchSet mPatchSet;
+    private final RPatchLayout mLayout;
+    private boolean mDrawCentered;
+    private boolean mReleased;
+
+    // Regions and transforms of every instance of the last pass, 36 values per instance
+    private int[] mRegions = new int[0];
+    private float[] mTransforms = new float[0];
+
+    private final Paint mCornerPaint = new Paint();
+    private final Paint mPatchPaint = new Paint();
+    private final Paint mFillPaint = new Paint();
+    private final Rect mClip = new Rect();
+
+    public RPatchBatch(Context c, int resId) {
+        this(c, resId, 0);
+    }
+
+    /**
+     * Takes the asset from {@link RPatchCache}, held from the moment it is looked up.
+     */
+    public RPatchBatch(Context c, int resId, int loadFlags) {
+        this(RPatchCache.acquire(c, resId, null, loadFlags), true);
+    }
+
+    /**
+     * @param patchSet A sliced or {@link RPatch#LOAD_REGION_DECODE} set; zero-copy sets have no
+     *                 per-patch bitmaps to bind. The caller must hold it, e.g. through
+     *                 {@link RPatchCache#acquire(Context, int)}, until this returns.
+     */
+    public RPatchBatch(PatchSet patchSet) {
+        this(patchSet, false);
+    }
+
+    private RPatchBatch(PatchSet patchSet, boolean acquired) {
+        if (patchSet.source != null) {
+            if (acquired) {
+                patchSet.release();
+            }
+            throw new IllegalArgumentException("LOAD_ZERO_COPY PatchSets can't be batched");
+        }
+        if (!acquired) {
+            patchSet.acquire();
+        }
+        mPatchSet = patchSet;
+        mLayout = new RPatchLayout(patchSet.leftWidth, patchSet.midWidth, patchSet.rightWidth,
+                patchSet.topHeight, patchSet.midHeight, patchSet.botHeight);
+    }
+
+    /**
+     * Applies to every instance, like {@link RPatch#setDrawCentered(boolean)}.
+     */
+    public void setDrawCentered(boolean drawCentered) {
+        mDrawCentered = drawCentered;
+    }
+
+    /**
+     * @param bounds Left, top, right and bottom of each instance
+     * @param flags  Repeat flags of each instance, as for {@link RPatch#setRepeatFlags(int)}
+     * @param count  Number of instances to draw
+     */
+    public void draw(Canvas canvas, int[] bounds, int[] flags, int count) {
+        if (mReleased) {
+            throw new IllegalStateException("RPatchBatch was released");
+        }
+        if (mRegions.length < count * 36) {
+            mRegions = new int[count * 36];
+            mTransforms = new float[count * 36];
+        }
+        if (!canvas.getClipBounds(mClip)) {
+            return;
+        }
+        // Instances outside the clip are left out of the pass altogether
+        int visible = 0;
+        for (int n = 0; n < count; n++) {
+            int b = n * 4;
+            if (!mClip.intersects(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3])) {
+                continue;
+            }
+            mLayout.layout(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], flags[n],
+                    mDrawCentered);
+            System.arraycopy(mLayout.regions, 0, mRegions, visible * 36, 36);
+            System.arraycopy(mLayout.transforms, 0, mTransforms, visible * 36, 36);
+            visible++;
+        }
+        count = visible;
+
+        PatchSet patchSet = mPatchSet;
+        for (int i = 0; i < 9; i++) {
+            if (patchSet.sourceRects[i].isEmpty()
+                    || patchSet.opacities[i] == PixelFormat.TRANSPARENT) {
+                continue;
+            }
+            if (patchSet.solidColors[i] != 0) {
+                mFillPaint.setColor(patchSet.solidColors[i]);
+                for (int n = 0; n < count; n++) {
+                    int r = n * 36 + i * 4;
+                    canvas.drawRect(mRegions[r], mRegions[r + 1], mRegions[r + 2],
+                            mRegions[r + 3], mFillPaint);
+                }
+            } else if (RPatchLayout.isCorner(i)) {
+                Bitmap patch = patchSet.getPatch(i);
+                // Region-decoded patches may fail to decode; they are left out
+                if (patch == null) {
+                    continue;
+                }
+                mCornerPaint.setColor(patchSet.paintColors[i]);
+                for (int n = 0; n < count; n++) {
+                    int r = n * 36 + i * 4;
+                    canvas.drawBitmap(patch, mRegions[r], mRegions[r + 1], mCornerPaint);
+                }
+            } else {
+                // The shared shader keeps an identity matrix; each instance moves the canvas
+                BitmapShader shader = patchSet.getShader(i);
+                if (shader == null) {
+                    continue;
+                }
+                mPatchPaint.setColor(patchSet.paintColors[i]);
+                mPatchPaint.setShader(shader);
+                for (int n = 0; n < count; n++) {
+                    int r = n * 36 + i * 4;
+                    int width = mRegions[r + 2] - mRegions[r];
+                    int height = mRegions[r + 3] - mRegions[r + 1];
+                    if (width <= 0 || height <= 0) {
+                        continue;
+                    }
+                    canvas.save();
+                    canvas.translate(mTransforms[r + 2], mTransforms[r + 3]);
+                    canvas.scale(mTransforms[r], mTransforms[r + 1]);
+                    canvas.drawRect(0, 0, width / mTransforms[r], height / mTransforms[r + 1],
+                            mPatchPaint);
+                    canvas.restore();
+                }
+            }
+        }
+        mPatchPaint.setShader(null);
+    }
+
+    /**
+     * Lets go of the PatchSet, as {@link RPatch#release()} does. The batch can't draw afterwards.
+     */
+    public void release() {
+        if (!mReleased) {
+            mReleased = true;
+            mPatchSet.release();
+        }
+    }
+}
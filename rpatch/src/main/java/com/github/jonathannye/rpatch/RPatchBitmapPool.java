@@ -0,0 +1,147 @@
+package com.github.jonathannye.rpatch;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Process-wide pool of bitmaps freed by released RPatches, keyed by width, height and config.
+ * Assets are decoded into pooled bitmaps (through {@code BitmapFactory.Options.inBitmap} on API
+ * 11+) and patches are sliced into them, so swapping between RPatches of similar sizes reuses
+ * memory instead of churning the heap. Only mutable bitmaps are pooled. Bitmaps are dropped oldest
+ * first once the pool exceeds its byte budget, and all of them when {@link RPatchCache} is asked to
+ * trim memory. Dropped bitmaps aren't recycled, since a display list recorded before their RPatch
+ * was released may still refer to them; the garbage collector frees them once it lets go.
+ *
+ * Bitmaps only enter the pool through {@link RPatch#release()}, once nothing else can draw them.
+ */
+public final class RPatchBitmapPool {
+
+    private static final HashMap<Key, ArrayList<Bitmap>> sBuckets =
+            new HashMap<Key, ArrayList<Bitmap>>();
+    // Oldest first, for eviction
+    private static final LinkedList<Bitmap> sOrder = new LinkedList<Bitmap>();
+    private static final Key sLookupKey = new Key(0, 0, null);
+
+    private static long sMaxBytes = Runtime.getRuntime().maxMemory() / 16;
+    private static long sBytes;
+
+    private RPatchBitmapPool() {
+    }
+
+    /**
+     * @return A pooled bitmap of exactly this size and config with undefined contents, or null
+     */
+    public static synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        sLookupKey.set(width, height, config);
+        ArrayList<Bitmap> bucket = sBuckets.get(sLookupKey);
+        if (bucket == null || bucket.isEmpty()) {
+            return null;
+        }
+        Bitmap b = bucket.remove(bucket.size() - 1);
+        sOrder.remove(b);
+        sBytes -= byteCount(b);
+        return b;
+    }
+
+    /**
+     * A pooled bitmap if there is one, otherwise a new mutable one; cleared either way.
+     */
+    static Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap b = get(width, height, config);
+        if (b == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        b.eraseColor(0);
+        return b;
+    }
+
+    /**
+     * Hands a bitmap over to the pool. The caller must not use it afterwards. Immutable and
+     * recycled bitmaps, and bitmaps larger than the whole budget, are ignored.
+     */
+    public static synchronized void put(Bitmap b) {
+        if (b == null || b.isRecycled() || !b.isMutable() || b.getConfig() == null
+                || byteCount(b) > sMaxBytes || sOrder.contains(b)) {
+            return;
+        }
+        Key key = new Key(b.getWidth(), b.getHeight(), b.getConfig());
+        ArrayList<Bitmap> bucket = sBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Bitmap>();
+            sBuckets.put(key, bucket);
+        }
+        bucket.add(b);
+        sOrder.add(b);
+        sBytes += byteCount(b);
+        trimToSize(sMaxBytes);
+    }
+
+    /**
+     * Sets the budget for pooled bitmaps. The default is one sixteenth of the maximum heap.
+     */
+    public static synchronized void setMaxBytes(long maxBytes) {
+        sMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public static synchronized long getMaxBytes() {
+        return sMaxBytes;
+    }
+
+    /**
+     * @return Bytes currently held by pooled bitmaps
+     */
+    public static synchronized long getSize() {
+        return sBytes;
+    }
+
+    public static synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private static void trimToSize(long maxBytes) {
+        while (sBytes > maxBytes && !sOrder.isEmpty()) {
+            Bitmap evicted = sOrder.removeFirst();
+            sLookupKey.set(evicted.getWidth(), evicted.getHeight(), evicted.getConfig());
+            sBuckets.get(sLookupKey).remove(evicted);
+            sBytes -= byteCount(evicted);
+        }
+    }
+
+    private static int byteCount(Bitmap b) {
+        return b.getRowBytes() * b.getHeight();
+    }
+
+    private static class Key {
+        int width;
+        int height;
+        Bitmap.Config config;
+
+        Key(int width, int height, Bitmap.Config config) {
+            set(width, height, config);
+        }
+
+        void set(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height && config == other.config;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * width + height) + (config == null ? 0 : config.hashCode());
+        }
+    }
+}
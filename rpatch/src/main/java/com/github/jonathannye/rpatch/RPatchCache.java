@@ -0,0 +1,287 @@
+package com.github.jonathannye.rpatch;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.os.Build;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide LRU cache of parsed {@link PatchSet}s, keyed by resource id, screen density and
+ * resource configuration. Entries are evicted least-recently-used first once the cached patches
+ * exceed the byte budget. On API 14+ the cache registers itself for {@code onTrimMemory} callbacks
+ * the first time it is used; on older platforms call {@link #onTrimMemory(int)} yourself.
+ *
+ * Evicted bitmaps are not recycled since RPatches created earlier may still be drawing them; they
+ * go to {@link RPatchBitmapPool} once those RPatches have been {@link RPatch#release() released}.
+ */
+public final class RPatchCache {
+
+    private static final LinkedHashMap<Key, PatchSet> sEntries =
+            new LinkedHashMap<Key, PatchSet>(16, 0.75f, true);
+
+    // Pin counts of entries held by RPatchPreloads, which are never evicted
+    private static final IdentityHashMap<PatchSet, Integer> sPins =
+            new IdentityHashMap<PatchSet, Integer>();
+
+    private static final int HOLD_NONE = 0;
+    private static final int HOLD_ACQUIRE = 1;
+    private static final int HOLD_PIN = 2;
+
+    private static long sMaxBytes = Runtime.getRuntime().maxMemory() / 8;
+    private static long sBytes;
+
+    private static int sHitCount;
+    private static int sMissCount;
+    private static int sEvictionCount;
+
+    private static boolean sCallbacksRegistered;
+
+    private RPatchCache() {
+    }
+
+    /**
+     * Returns the parsed patches for the given resource, decoding and parsing it on a miss. The
+     * result isn't held for the caller, so an insert on another thread may evict and release it at
+     * any time; to construct an RPatch or {@link RPatchBatch} from it, use
+     * {@link #acquire(Context, int)} instead.
+     */
+    public static PatchSet get(Context c, int resId) {
+        return get(c, resId, 0);
+    }
+
+    /**
+     * @param loadFlags Passed to {@link PatchSet#parseBitmap(android.graphics.Bitmap, int)}, and
+     *                  part of the cache key
+     */
+    public static PatchSet get(Context c, int resId, int loadFlags) {
+        return get(c, resId, null, loadFlags);
+    }
+
+    /**
+     * @param metadata Generated boundaries for a resource preprocessed by rpatch-maven-plugin, or
+     *                 null to scan the resource's border
+     */
+    public static PatchSet get(Context c, int resId, int[] metadata, int loadFlags) {
+        return lookup(c, resId, metadata, loadFlags, HOLD_NONE);
+    }
+
+    /**
+     * Like {@link #get(Context, int)}, but also takes a hold on the result for the caller, which
+     * keeps it usable until {@link PatchSet#release()}. Doing so under the cache's lock keeps an
+     * eviction from releasing it in between.
+     */
+    public static PatchSet acquire(Context c, int resId) {
+        return acquire(c, resId, null, 0);
+    }
+
+    public static PatchSet acquire(Context c, int resId, int loadFlags) {
+        return acquire(c, resId, null, loadFlags);
+    }
+
+    public static PatchSet acquire(Context c, int resId, int[] metadata, int loadFlags) {
+        return lookup(c, resId, metadata, loadFlags, HOLD_ACQUIRE);
+    }
+
+    /**
+     * Like {@link #get(Context, int, int[], int)}, but also keeps the entry from being evicted
+     * until {@link #unpin(PatchSet)}.
+     */
+    static PatchSet pin(Context c, int resId, int loadFlags) {
+        return lookup(c, resId, null, loadFlags, HOLD_PIN);
+    }
+
+    static synchronized void unpin(PatchSet patchSet) {
+        Integer pins = sPins.remove(patchSet);
+        if (pins != null && pins > 1) {
+            sPins.put(patchSet, pins - 1);
+        }
+        trimToSize(sMaxBytes);
+    }
+
+    private static void hold(PatchSet patchSet, int hold) {
+        if (hold == HOLD_ACQUIRE) {
+            patchSet.acquire();
+        } else if (hold == HOLD_PIN) {
+            Integer pins = sPins.get(patchSet);
+            sPins.put(patchSet, pins == null ? 1 : pins + 1);
+        }
+    }
+
+    private static PatchSet lookup(Context c, int resId, int[] metadata, int loadFlags,
+                                   int hold) {
+        registerCallbacks(c);
+
+        Resources res = c.getResources();
+        Key key = new Key(resId, loadFlags, res.getDisplayMetrics().densityDpi,
+                res.getConfiguration());
+        synchronized (RPatchCache.class) {
+            PatchSet cached = sEntries.get(key);
+            if (cached != null) {
+                sHitCount++;
+                hold(cached, hold);
+                return cached;
+            }
+            sMissCount++;
+        }
+
+        // Decode outside the lock; if another thread raced us, keep the entry already present
+        PatchSet parsed = RPatchDiskCache.read(res, resId, loadFlags);
+        boolean fromDisk = parsed != null;
+        if (fromDisk) {
+            parsed.resId = resId;
+        } else {
+            parsed = metadata != null
+                    ? PatchSet.decodeResource(res, resId, metadata, loadFlags)
+                    : PatchSet.decodeResource(res, resId, loadFlags);
+        }
+        key.config = new Configuration(key.config);
+        synchronized (RPatchCache.class) {
+            PatchSet existing = sEntries.get(key);
+            if (existing != null) {
+                hold(existing, hold);
+                // Nothing else has seen ours, so its bitmaps can go straight back to the pool
+                parsed.release();
+                return existing;
+            }
+            parsed.acquire();
+            hold(parsed, hold);
+            sEntries.put(key, parsed);
+            sBytes += parsed.getByteCount();
+            if (!fromDisk) {
+                // Only the thread whose set went in writes it, and before trimming can evict it
+                RPatchDiskCache.writeLater(res, resId, loadFlags, parsed);
+            }
+            trimToSize(sMaxBytes);
+        }
+        return parsed;
+    }
+
+    /**
+     * Sets the budget for cached patch bitmaps. The default is one eighth of the maximum heap.
+     */
+    public static synchronized void setMaxBytes(long maxBytes) {
+        sMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public static synchronized long getMaxBytes() {
+        return sMaxBytes;
+    }
+
+    /**
+     * @return Bytes currently held by cached patch bitmaps
+     */
+    public static synchronized long getSize() {
+        return sBytes;
+    }
+
+    public static synchronized int getHitCount() {
+        return sHitCount;
+    }
+
+    public static synchronized int getMissCount() {
+        return sMissCount;
+    }
+
+    public static synchronized int getEvictionCount() {
+        return sEvictionCount;
+    }
+
+    public static synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Drops cached patches in response to memory pressure, and whatever the entries that are kept
+     * can rebuild (see {@link PatchSet#releasePatches()}), and empties {@link RPatchBitmapPool}.
+     * Levels are those of {@link ComponentCallbacks2}.
+     */
+    public static synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(sMaxBytes / 2);
+            for (PatchSet patchSet : sEntries.values()) {
+                patchSet.releasePatches();
+            }
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            RPatchBitmapPool.clear();
+        }
+    }
+
+    private static void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<Key, PatchSet>> it = sEntries.entrySet().iterator();
+        while (sBytes > maxBytes && it.hasNext()) {
+            PatchSet evicted = it.next().getValue();
+            if (sPins.containsKey(evicted)) {
+                continue;
+            }
+            it.remove();
+            sBytes -= evicted.getByteCount();
+            sEvictionCount++;
+            evicted.release();
+        }
+    }
+
+    private static synchronized void registerCallbacks(Context c) {
+        if (sCallbacksRegistered || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+        sCallbacksRegistered = true;
+        c.getApplicationContext().registerComponentCallbacks(new TrimCallbacks());
+    }
+
+    // Only loaded on API 14+
+    private static class TrimCallbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(int level) {
+            RPatchCache.onTrimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            clear();
+        }
+    }
+
+    private static class Key {
+        final int resId;
+        final int loadFlags;
+        final int density;
+        Configuration config;
+
+        Key(int resId, int loadFlags, int density, Configuration config) {
+            this.resId = resId;
+            this.loadFlags = loadFlags;
+            this.density = density;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return resId == other.resId && loadFlags == other.loadFlags
+                    && density == other.density && config.equals(other.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * resId + loadFlags) + density) + config.hashCode();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.github.jonathannye.rpatch;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.TypedValue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Opt-in cache of sliced patches in the app's cache directory, so that assets don't have to be
+ * decoded from PNG again on every process start. Once {@link #install(Context) installed},
+ * {@link RPatchCache} misses are first looked up here. Only then is the asset decoded and parsed,
+ * and the result written back on a background thread, so the miss doesn't wait on disk. Patches
+ * are stored as raw pixels along with their boundaries and colors. They are read back through a memory-mapped {@link ByteBuffer} with
+ * {@link Bitmap#copyPixelsFromBuffer(java.nio.Buffer)}.
+ *
+ * Entries are keyed by resource, resource file, screen density and load flags. Entries written by
+ * a different version or install of the app are treated as stale and replaced. Sets loaded with
+ * {@link RPatch#LOAD_ZERO_COPY} or {@link RPatch#LOAD_REGION_DECODE} aren't cached, since they
+ * hold no sliced patches.
+ */
+public final class RPatchDiskCache {
+
+    private static final int MAGIC = 0x52504443;
+    // Bump when the file layout changes
+    private static final int FORMAT_VERSION = 1;
+    private static final int UNCACHEABLE = RPatch.LOAD_ZERO_COPY | RPatch.LOAD_REGION_DECODE;
+
+    private static File sDirectory;
+    private static int sVersionCode;
+    private static long sLastUpdateTime;
+    private static ExecutorService sWriter;
+
+    private RPatchDiskCache() {
+    }
+
+    /**
+     * Turns the disk cache on, in a {@code rpatch} directory under {@link Context#getCacheDir()}.
+     */
+    public static synchronized void install(Context c) {
+        sDirectory = new File(c.getCacheDir(), "rpatch");
+        try {
+            PackageInfo info = c.getPackageManager().getPackageInfo(c.getPackageName(), 0);
+            sVersionCode = info.versionCode;
+            // Tells apart reinstalls of the same version, e.g. during development
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+                sLastUpdateTime = info.lastUpdateTime;
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static synchronized boolean isInstalled() {
+        return sDirectory != null;
+    }
+
+    /**
+     * Deletes every cached entry. The cache stays installed.
+     */
+    public static synchronized void clear() {
+        File[] files = sDirectory == null ? null : sDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private static synchronized File getDirectory() {
+        return sDirectory;
+    }
+
+    /**
+     * @return The cached set, or null if there is none, it is stale, or the cache isn't installed
+     */
+    static PatchSet read(Resources res, int resId, int loadFlags) {
+        File dir = getDirectory();
+        if (dir == null || (loadFlags & UNCACHEABLE) != 0) {
+            return null;
+        }
+        String path = resourcePath(res, resId);
+        File file = entryFile(dir, res, resId, loadFlags, path);
+        if (!file.exists()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            PatchSet set = readEntry(in.getChannel(), path, loadFlags);
+            if (set == null) {
+                file.delete();
+            }
+            return set;
+        } catch (IOException e) {
+            return null;
+        } catch (BufferUnderflowException e) {
+            // Truncated
+            file.delete();
+            return null;
+        } catch (IllegalArgumentException e) {
+            // Unknown bitmap config, or mismatched pixel data
+            file.delete();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Writes a freshly parsed set back on the cache's writer thread, if the cache is installed and
+     * the set can be cached. The set is held until written, so an eviction in the meantime doesn't
+     * hand its bitmaps to the pool while they're being copied out.
+     */
+    static void writeLater(Resources res, int resId, int loadFlags, final PatchSet set) {
+        final File dir = getDirectory();
+        if (dir == null || !isCacheable(loadFlags, set)) {
+            return;
+        }
+        // Resolved now, as the configuration may change before the write runs
+        final String path = resourcePath(res, resId);
+        final File file = entryFile(dir, res, resId, loadFlags, path);
+        set.acquire();
+        getWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(dir, file, path, set);
+                } finally {
+                    set.release();
+                }
+            }
+        });
+    }
+
+    private static boolean isCacheable(int loadFlags, PatchSet set) {
+        return (loadFlags & UNCACHEABLE) == 0 && set.source == null && !set.isRegionDecoded();
+    }
+
+    private static synchronized ExecutorService getWriter() {
+        if (sWriter == null) {
+            sWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "RPatchDiskCache");
+                    // An entry that isn't finished is only a decode on the next start
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return sWriter;
+    }
+
+    // Failures only cost the next start a decode, so they are ignored
+    private static void write(File dir, File file, String path, PatchSet set) {
+        File tmp = null;
+        FileOutputStream out = null;
+        try {
+            dir.mkdirs();
+            // Written aside and renamed into place, so readers never see a partial entry
+            tmp = File.createTempFile("entry", ".tmp", dir);
+            out = new FileOutputStream(tmp);
+            writeEntry(out.getChannel(), path, set);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        } finally {
+            close(out);
+        }
+    }
+
+    // Header: magic, format and app versions, resource file, boundaries, overall opacity and
+    // decoded size. Then for each patch its opacity and colors, and if it isn't empty its config,
+    // density and pixel byte count, followed by all the pixels one patch after another.
+    private static void writeEntry(FileChannel channel, String path, PatchSet set)
+            throws IOException {
+        byte[] pathBytes = path.getBytes("UTF-8");
+        ByteBuffer header = ByteBuffer.allocate(1024 + pathBytes.length);
+        header.putInt(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putInt(sVersionCode);
+        header.putLong(sLastUpdateTime);
+        header.putInt(pathBytes.length);
+        header.put(pathBytes);
+        header.putInt(set.sourceRects[RPatch.IDX_TOP_LEFT].left);
+        header.putInt(set.leftWidth);
+        header.putInt(set.midWidth);
+        header.putInt(set.rightWidth);
+        header.putInt(set.topHeight);
+        header.putInt(set.midHeight);
+        header.putInt(set.botHeight);
+        header.putInt(set.getOpacity());
+        header.putInt(set.getDecodedByteCount());
+        for (int i = 0; i < 9; i++) {
+            header.putInt(set.opacities[i]);
+            header.putInt(set.colors[i]);
+            header.putInt(set.solidColors[i]);
+            header.putInt(set.paintColors[i]);
+            Bitmap patch = set.patches[i];
+            if (patch == null) {
+                header.putInt(0);
+                continue;
+            }
+            byte[] config = patch.getConfig().name().getBytes("UTF-8");
+            header.putInt(config.length);
+            header.put(config);
+            header.putInt(patch.getDensity());
+            header.putInt(patch.getRowBytes() * patch.getHeight());
+        }
+        header.flip();
+        writeFully(channel, header);
+        for (int i = 0; i < 9; i++) {
+            Bitmap patch = set.patches[i];
+            if (patch != null) {
+                ByteBuffer pixels = ByteBuffer.allocate(patch.getRowBytes() * patch.getHeight());
+                patch.copyPixelsToBuffer(pixels);
+                pixels.flip();
+                writeFully(channel, pixels);
+            }
+        }
+    }
+
+    // Returns null for stale entries
+    private static PatchSet readEntry(FileChannel channel, String path, int loadFlags)
+            throws IOException {
+        ByteBuffer in;
+        try {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            // Not every file system can map files
+            in = ByteBuffer.allocate((int) channel.size());
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+            }
+            in.flip();
+        }
+        if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION
+                || in.getInt() != sVersionCode || in.getLong() != sLastUpdateTime
+                || !path.equals(getString(in))) {
+            return null;
+        }
+        int inset = in.getInt();
+        int[] bounds = new int[6];
+        for (int i = 0; i < 6; i++) {
+            bounds[i] = in.getInt();
+        }
+        int opacity = in.getInt();
+        int decodedByteCount = in.getInt();
+
+        int[] analysis = new int[36];
+        Bitmap.Config[] configs = new Bitmap.Config[9];
+        int[] densities = new int[9];
+        int[] byteCounts = new int[9];
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 4; j++) {
+                analysis[j * 9 + i] = in.getInt();
+            }
+            String config = getString(in);
+            if (config.length() > 0) {
+                configs[i] = Bitmap.Config.valueOf(config);
+                densities[i] = in.getInt();
+                byteCounts[i] = in.getInt();
+            }
+        }
+
+        Bitmap[] patches = new Bitmap[9];
+        int[] widths = {bounds[0], bounds[1], bounds[2]};
+        int[] heights = {bounds[3], bounds[4], bounds[5]};
+        try {
+            for (int i = 0; i < 9; i++) {
+                if (configs[i] == null) {
+                    continue;
+                }
+                // Stored right away, so it goes back to the pool if it turns out not to fit
+                Bitmap patch = RPatchBitmapPool.obtain(widths[i % 3], heights[i / 3], configs[i]);
+                patches[i] = patch;
+                if (patch.getRowBytes() * patch.getHeight() != byteCounts[i]) {
+                    throw new IllegalArgumentException("Cached pixels don't fit their bitmap");
+                }
+                int start = in.position();
+                in.limit(start + byteCounts[i]);
+                patch.copyPixelsFromBuffer(in);
+                in.limit(in.capacity());
+                in.position(start + byteCounts[i]);
+                patch.setDensity(densities[i]);
+            }
+        } catch (RuntimeException e) {
+            // Truncated or mismatched pixels; nothing else has seen these bitmaps
+            for (Bitmap patch : patches) {
+                RPatchBitmapPool.put(patch);
+            }
+            throw e;
+        }
+
+        PatchSet set = PatchSet.restore(inset, bounds, patches, opacity, decodedByteCount,
+                loadFlags);
+        System.arraycopy(analysis, 0, set.opacities, 0, 9);
+        System.arraycopy(analysis, 9, set.colors, 0, 9);
+        System.arraycopy(analysis, 18, set.solidColors, 0, 9);
+        System.arraycopy(analysis, 27, set.paintColors, 0, 9);
+        return set;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String getString(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    // The file the resource resolves to under the current configuration, e.g.
+    // res/drawable-xhdpi/frame.png, which tells apart assets picked for different qualifiers
+    private static String resourcePath(Resources res, int resId) {
+        TypedValue value = new TypedValue();
+        res.getValue(resId, value, true);
+        return value.string == null ? "" : value.string.toString();
+    }
+
+    private static File entryFile(File dir, Resources res, int resId, int loadFlags,
+                                  String path) {
+        return new File(dir, Integer.toHexString(resId) + "_"
+                + res.getDisplayMetrics().densityDpi + "_" + loadFlags + "_"
+                + Integer.toHexString(path.hashCode()));
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.jonathannye.rpatch;
+
+/**
+ * Receives measurements of what RPatch assets cost, once installed with
+ * {@link RPatch#setMetrics(RPatchMetrics, int)}. Callbacks are made on whichever thread did the
+ * work (parsing may happen on a {@link RPatch#loadAsync} executor), so implementations must be
+ * thread-safe and return quickly.
+ */
+public interface RPatchMetrics {
+
+    /**
+     * Called after an asset is decoded and sliced, for every asset.
+     *
+     * @param resId        The resource, or 0 for a bitmap parsed directly
+     * @param parseNanos   Time spent decoding and slicing
+     * @param decodedBytes Bytes of the decoded asset bitmap
+     * @param slicedBytes  Bytes held by the resulting {@link PatchSet}
+     */
+    void onParsed(int resId, long parseNanos, int decodedBytes, int slicedBytes);
+
+    /**
+     * Called for one in every {@code drawSampleInterval} draws across all RPatches.
+     *
+     * @param resId     The resource, or 0 for an RPatch created from a bitmap or still loading
+     * @param drawCalls Canvas draw calls made by this draw
+     * @param drawNanos Time spent in {@code draw()}
+     */
+    void onDraw(int resId, int drawCalls, long drawNanos);
+}
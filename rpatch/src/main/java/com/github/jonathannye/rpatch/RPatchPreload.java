@@ -0,0 +1,116 @@
+package com.github.jonathannye.rpatch;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Handle to a batch of assets being decoded and parsed in parallel by
+ * {@link RPatch#preload(Context, Executor, int...)}. Each asset goes into {@link RPatchCache} and is
+ * pinned there, so RPatches later constructed for it with the same load flags skip decoding, until
+ * {@link #release()} lets the cache evict it again.
+ */
+public final class RPatchPreload {
+
+    private final CountDownLatch mRemaining;
+    private final long mStart = System.nanoTime();
+    private final ArrayList<PatchSet> mPinned = new ArrayList<PatchSet>();
+    private long mElapsedNanos = -1;
+    private long mByteCount;
+    private Throwable mFailure;
+    private boolean mReleased;
+
+    RPatchPreload(Context c, final int loadFlags, Executor executor, int... resIds) {
+        final Context appContext = c.getApplicationContext();
+        mRemaining = new CountDownLatch(resIds.length);
+        if (resIds.length == 0) {
+            mElapsedNanos = 0;
+        }
+        for (final int resId : resIds) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    PatchSet patchSet = null;
+                    Throwable failure = null;
+                    try {
+                        patchSet = RPatchCache.pin(appContext, resId, loadFlags);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    } catch (Error e) {
+                        failure = e;
+                    }
+                    onLoaded(patchSet, failure);
+                }
+            });
+        }
+    }
+
+    // Counting down under the lock makes exactly one finishing load see the count reach zero, and
+    // the elapsed time is set before await() or isDone() can see it
+    private synchronized void onLoaded(PatchSet patchSet, Throwable failure) {
+        if (patchSet != null) {
+            if (mReleased) {
+                RPatchCache.unpin(patchSet);
+            } else {
+                mPinned.add(patchSet);
+                mByteCount += patchSet.getByteCount();
+            }
+        }
+        if (failure != null && mFailure == null) {
+            mFailure = failure;
+        }
+        if (mRemaining.getCount() == 1) {
+            mElapsedNanos = System.nanoTime() - mStart;
+        }
+        mRemaining.countDown();
+    }
+
+    public boolean isDone() {
+        return mRemaining.getCount() == 0;
+    }
+
+    /**
+     * Blocks until every asset has been parsed.
+     *
+     * @throws RuntimeException If any asset failed to load
+     */
+    public void await() throws InterruptedException {
+        mRemaining.await();
+        synchronized (this) {
+            if (mFailure != null) {
+                throw new RuntimeException("Failed to preload RPatch", mFailure);
+            }
+        }
+    }
+
+    /**
+     * @return Time from the call to preload until the last asset was parsed, or -1 if not done
+     */
+    public synchronized long getElapsedMillis() {
+        return mElapsedNanos < 0 ? -1 : mElapsedNanos / 1000000;
+    }
+
+    /**
+     * @return Bytes held by the assets parsed so far
+     */
+    public synchronized long getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * Unpins the assets, leaving them in the cache like any other entry. Assets still being parsed
+     * are unpinned as they finish.
+     */
+    public synchronized void release() {
+        if (mReleased) {
+            return;
+        }
+        mReleased = true;
+        for (PatchSet patchSet : mPinned) {
+            RPatchCache.unpin(patchSet);
+        }
+        mPinned.clear();
+    }
+}
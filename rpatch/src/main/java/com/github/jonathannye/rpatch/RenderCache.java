@@ -0,0 +1,103 @@
+package com.github.jonathannye.rpatch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import java.util.WeakHashMap;
+
+/**
+ * A flattened rendering of one RPatch at its current size. The bytes held by all render caches in
+ * the process are capped; once the cap is reached, new caches aren't created and RPatches draw
+ * normally instead.
+ */
+final class RenderCache {
+
+    // Weak so that caches of RPatches that were dropped without being released stop counting
+    private static final WeakHashMap<Bitmap, Boolean> sLiveBitmaps =
+            new WeakHashMap<Bitmap, Boolean>();
+    private static long sMaxBytes = 4 * 1024 * 1024;
+
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+    private boolean mValid;
+
+    static synchronized void setMaxBytes(long maxBytes) {
+        sMaxBytes = maxBytes;
+    }
+
+    static synchronized long getMaxBytes() {
+        return sMaxBytes;
+    }
+
+    static synchronized long getSize() {
+        long bytes = 0;
+        for (Bitmap b : sLiveBitmaps.keySet()) {
+            bytes += b.getRowBytes() * b.getHeight();
+        }
+        return bytes;
+    }
+
+    private static synchronized Bitmap allocate(int width, int height) {
+        // ARGB_8888
+        if (getSize() + 4L * width * height > sMaxBytes) {
+            return null;
+        }
+        Bitmap b = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        sLiveBitmaps.put(b, Boolean.TRUE);
+        return b;
+    }
+
+    private static synchronized void free(Bitmap b) {
+        sLiveBitmaps.remove(b);
+    }
+
+    boolean isValid() {
+        return mValid;
+    }
+
+    void invalidate() {
+        mValid = false;
+    }
+
+    Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * @return A cleared canvas of the given size to render into, or null if that would exceed
+     * the process-wide cap
+     */
+    Canvas begin(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        if (mBitmap != null && (mBitmap.getWidth() != width || mBitmap.getHeight() != height)) {
+            release();
+        }
+        if (mBitmap == null) {
+            Bitmap b = allocate(width, height);
+            if (b == null) {
+                return null;
+            }
+            mBitmap = b;
+            mCanvas = new Canvas(b);
+        } else {
+            mBitmap.eraseColor(0);
+        }
+        mValid = true;
+        return mCanvas;
+    }
+
+    /**
+     * Drops the cached bitmap. It isn't recycled since a display list may still refer to it; it
+     * stops counting against the cap right away and is left to the garbage collector.
+     */
+    void release() {
+        if (mBitmap != null) {
+            free(mBitmap);
+            mBitmap = null;
+            mCanvas = null;
+        }
+        mValid = false;
+    }
+}